@@ -0,0 +1,138 @@
+package fabric.beta.publisher;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.Channel;
+import hudson.remoting.FastPipedInputStream;
+import hudson.remoting.FastPipedOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link #createTemporaryUploadFile} copies the APK through a remoting channel pair within this JVM, so that it
+ * measures the same pipelined transfer as a copy from an agent, minus the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ApkBenchmark {
+    private final PrintStream logger = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+
+        }
+    });
+
+    @Param({"10", "100", "500"})
+    public int sizeMb;
+
+    @Param({"100", "5000"})
+    public int entryCount;
+
+    private File apk;
+    private TempWorkspace tempWorkspace;
+    private File output;
+    private ExecutorService channelExecutor;
+    private Channel controllerChannel;
+    private Channel agentChannel;
+
+    @Setup(Level.Trial)
+    public void createApk() throws IOException {
+        apk = SyntheticApk.create(sizeMb, entryCount);
+        tempWorkspace = TempWorkspace.create();
+    }
+
+    @Setup(Level.Trial)
+    public void connectAgent() throws Exception {
+        channelExecutor = Executors.newCachedThreadPool();
+        final FastPipedInputStream controllerIn = new FastPipedInputStream();
+        final FastPipedInputStream agentIn = new FastPipedInputStream();
+        final FastPipedOutputStream controllerOut = new FastPipedOutputStream(agentIn);
+        final FastPipedOutputStream agentOut = new FastPipedOutputStream(controllerIn);
+        // both ends have to be created at the same time, since each waits for the other's handshake
+        Future<Channel> controller = channelExecutor.submit(new Callable<Channel>() {
+            @Override
+            public Channel call() throws IOException {
+                return new Channel("controller", channelExecutor, controllerIn, controllerOut);
+            }
+        });
+        Future<Channel> agent = channelExecutor.submit(new Callable<Channel>() {
+            @Override
+            public Channel call() throws IOException {
+                return new Channel("agent", channelExecutor, agentIn, agentOut);
+            }
+        });
+        controllerChannel = controller.get();
+        agentChannel = agent.get();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteApk() throws IOException {
+        Util.deleteFile(apk);
+        tempWorkspace.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnectAgent() throws IOException, InterruptedException {
+        controllerChannel.close();
+        agentChannel.close();
+        controllerChannel.join();
+        agentChannel.join();
+        channelExecutor.shutdownNow();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteOutput() throws IOException {
+        if (output != null) {
+            tempWorkspace.delete(logger, output);
+            output = null;
+        }
+    }
+
+    @Benchmark
+    public void unzipLegacy() throws IOException {
+        output = tempWorkspace.newDirectory("unzip");
+        LegacyUnzip.unzip(apk.getAbsolutePath(), output);
+    }
+
+    @Benchmark
+    public void zipExtractor() throws IOException {
+        output = tempWorkspace.newDirectory("unzip");
+        ZipExtractor.extract(apk, output, ZipExtractor.ALL_ENTRIES);
+    }
+
+    @Benchmark
+    public AppRelease appReleaseFrom() throws IOException {
+        return AppRelease.from(apk);
+    }
+
+    @Benchmark
+    public void createTemporaryUploadFile() throws IOException, InterruptedException {
+        output = FileUtils.createTemporaryUploadFile(logger, tempWorkspace,
+                new FilePath(controllerChannel, apk.getAbsolutePath()));
+    }
+}
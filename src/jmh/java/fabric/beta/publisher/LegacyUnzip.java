@@ -0,0 +1,35 @@
+package fabric.beta.publisher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The sequential extraction that {@link ZipExtractor} has replaced, kept as a baseline for {@link ApkBenchmark}.
+ */
+final class LegacyUnzip {
+    private LegacyUnzip() {
+    }
+
+    static void unzip(String zipFilePath, File destDir) throws IOException {
+        byte[] buffer = new byte[1024];
+        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(zipFilePath))) {
+            ZipEntry ze = zis.getNextEntry();
+            while (ze != null) {
+                File newFile = new File(destDir, ze.getName());
+                new File(newFile.getParent()).mkdirs();
+                try (FileOutputStream fos = new FileOutputStream(newFile)) {
+                    int len;
+                    while ((len = zis.read(buffer)) > 0) {
+                        fos.write(buffer, 0, len);
+                    }
+                }
+                zis.closeEntry();
+                ze = zis.getNextEntry();
+            }
+        }
+    }
+}
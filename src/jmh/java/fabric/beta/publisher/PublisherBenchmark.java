@@ -0,0 +1,119 @@
+package fabric.beta.publisher;
+
+import hudson.EnvVars;
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublisherBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int changelogEntries;
+
+    private ChangeLogSet<ChangeLogSet.Entry> changeLogSet;
+    private FabricBetaPublisher publisher;
+    private EnvVars environment;
+    private File releaseNotesFile;
+    private PrintStream logger;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<ChangeLogSet.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < changelogEntries; i++) {
+            entries.add(new Entry("Commit " + i + ": fixed a bug in a rather long commit message line"));
+        }
+        changeLogSet = new ListChangeLogSet(entries);
+        publisher = new FabricBetaPublisher("apiKey", "buildSecret",
+                FabricBetaPublisher.RELEASE_NOTES_TYPE_CHANGELOG, "NOTIFY_TESTERS_GROUP", null, null,
+                "app/build/outputs/apk/app-release.apk", null, "testers", "org", false);
+        environment = new EnvVars();
+        releaseNotesFile = File.createTempFile("release-notes", ".txt");
+        releaseNotesFile.deleteOnExit();
+        logger = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        });
+    }
+
+    @Benchmark
+    public boolean releaseNotesFromChangelog() throws IOException, InterruptedException {
+        return ReleaseNotesFormatter.writeReleaseNotes(null, changeLogSet,
+                FabricBetaPublisher.RELEASE_NOTES_TYPE_CHANGELOG, null, null, 0, environment, null,
+                releaseNotesFile, logger);
+    }
+
+    @Benchmark
+    public List<String> buildCrashlyticsCommand() {
+        return publisher.buildCrashlyticsCommand(environment, new File("manifest.xml"), new File("app.apk"),
+                new File("crashlytics-devtools.jar"), releaseNotesFile);
+    }
+
+    private static final class ListChangeLogSet extends ChangeLogSet<ChangeLogSet.Entry> {
+        private final List<ChangeLogSet.Entry> entries;
+
+        ListChangeLogSet(List<ChangeLogSet.Entry> entries) {
+            super(null, null);
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean isEmptySet() {
+            return entries.isEmpty();
+        }
+
+        @Override
+        public Iterator<ChangeLogSet.Entry> iterator() {
+            return entries.iterator();
+        }
+    }
+
+    private static final class Entry extends ChangeLogSet.Entry {
+        private final String msg;
+
+        Entry(String msg) {
+            this.msg = msg;
+        }
+
+        @Override
+        public String getMsg() {
+            return msg;
+        }
+
+        @Override
+        public User getAuthor() {
+            return null;
+        }
+
+        @Override
+        public Collection<String> getAffectedPaths() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package fabric.beta.publisher;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes APK-like zip files of a given size. Entries hold random bytes and are stored uncompressed, so the file
+ * size is what was asked for and generating it stays fast.
+ */
+final class SyntheticApk {
+    private SyntheticApk() {
+    }
+
+    static File create(int sizeMb, int entryCount) throws IOException {
+        File apk = File.createTempFile("synthetic-" + sizeMb + "mb-" + entryCount, ".apk");
+        apk.deleteOnExit();
+        Random random = new Random(sizeMb * 31L + entryCount);
+        long totalBytes = sizeMb * 1024L * 1024L;
+        int entrySize = (int) Math.max(1, totalBytes / entryCount);
+        byte[] data = new byte[entrySize];
+        try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(apk)))) {
+            zos.setMethod(ZipOutputStream.STORED);
+            for (int i = 0; i < entryCount; i++) {
+                random.nextBytes(data);
+                putEntry(zos, "res/raw/entry" + (i % 64) + "/" + i + ".bin", data);
+            }
+            putEntry(zos, "assets/crashlytics-build.properties",
+                    "package_name=com.example\nbuild_id=abc\nversion_name=1.0\nversion_code=42\n".getBytes("UTF-8"));
+        }
+        return apk;
+    }
+
+    private static void putEntry(ZipOutputStream zos, String name, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(crc.getValue());
+        zos.putNextEntry(entry);
+        zos.write(data);
+        zos.closeEntry();
+    }
+}
@@ -0,0 +1,189 @@
+package fabric.beta.publisher;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs crashlytics-devtools.jar on the agent that holds the workspace, so that APKs don't travel through the
+ * controller. The jar is cached on the agent in a directory named after its SHA-256 and is only copied when that
+ * version is missing. The manifest and the release notes are copied into a directory of their own for each publish.
+ * The jar runs with the proxy settings of the agent, not those of the controller.
+ */
+class AgentUpload {
+    private static final String TOOLS_JAR = "crashlytics-devtools.jar";
+    /**
+     * Touched whenever a publish uses the version in its directory.
+     */
+    private static final String LAST_USED = "last-used";
+    /**
+     * Other versions of the jar are kept this long after their last use, since a build may still be running them.
+     */
+    private static final long STALE_VERSION_MS = TimeUnit.DAYS.toMillis(1);
+
+    private final Launcher launcher;
+    private final FilePath workDir;
+    private final FilePath toolsJar;
+    private final FilePath manifestFile;
+    private final FilePath releaseNotesFile;
+    private final List<String> proxyOptions;
+
+    private AgentUpload(Launcher launcher, FilePath workDir, FilePath toolsJar, FilePath manifestFile,
+                        FilePath releaseNotesFile, List<String> proxyOptions) {
+        this.launcher = launcher;
+        this.workDir = workDir;
+        this.toolsJar = toolsJar;
+        this.manifestFile = manifestFile;
+        this.releaseNotesFile = releaseNotesFile;
+        this.proxyOptions = proxyOptions;
+    }
+
+    /**
+     * @return directory of the plugin below the root of the agent that holds the workspace.
+     */
+    static FilePath agentRoot(FilePath workspace) throws IOException {
+        Computer computer = workspace.toComputer();
+        Node node = computer == null ? null : computer.getNode();
+        FilePath rootPath = node == null ? null : node.getRootPath();
+        if (rootPath == null) {
+            throw new IOException("The agent holding " + workspace.getRemote() + " is offline");
+        }
+        return rootPath.child("fabric-beta-publisher");
+    }
+
+    /**
+     * @param workDir          per-publish directory on the agent, deleted by the caller.
+     * @param releaseNotesFile may be null.
+     */
+    static AgentUpload prepare(PrintStream logger, Launcher launcher, FilePath agentRoot, FilePath workDir,
+                               File toolsJar, File manifestFile, File releaseNotesFile)
+            throws IOException, InterruptedException {
+        FilePath installedJar = installTools(logger, agentRoot.child("tools"), toolsJar);
+        FilePath agentManifest = copyTo(workDir, manifestFile);
+        FilePath agentReleaseNotes = releaseNotesFile == null ? null : copyTo(workDir, releaseNotesFile);
+        List<String> proxyOptions = workDir.getChannel().call(new ProxyOptions());
+        return new AgentUpload(launcher, workDir, installedJar, agentManifest, agentReleaseNotes, proxyOptions);
+    }
+
+    /**
+     * @return the verified jar in {@code toolsDir}, copied there first unless the same version is present. Its
+     * version is marked as used, so that it is not pruned while builds keep using it.
+     */
+    static FilePath installTools(PrintStream logger, FilePath toolsDir, File toolsJar)
+            throws IOException, InterruptedException {
+        String sha256 = FileUtils.sha256(toolsJar);
+        FilePath versionDir = toolsDir.child(sha256);
+        FilePath installedJar = versionDir.child(TOOLS_JAR);
+        if (installedJar.exists()) {
+            if (sha256.equals(FileUtils.sha256(installedJar))) {
+                logger.println("Using " + TOOLS_JAR + " cached on the agent at " + installedJar.getRemote());
+                versionDir.child(LAST_USED).touch(System.currentTimeMillis());
+                return installedJar;
+            }
+            logger.println("Cached " + installedJar.getRemote() + " is corrupted, copying it again");
+        }
+
+        versionDir.mkdirs();
+        FilePath tempJar = versionDir.createTempFile(TOOLS_JAR, ".tmp");
+        try {
+            tempJar.copyFrom(new FilePath(toolsJar));
+            if (!sha256.equals(FileUtils.sha256(tempJar))) {
+                throw new IOException("Checksum mismatch while copying " + TOOLS_JAR + " to the agent");
+            }
+            tempJar.act(new ReplaceCallable(installedJar.getName()));
+        } finally {
+            if (tempJar.exists()) {
+                tempJar.delete();
+            }
+        }
+        versionDir.child(LAST_USED).touch(System.currentTimeMillis());
+        logger.println("Copied " + TOOLS_JAR + " version " + sha256 + " to the agent");
+        pruneVersions(toolsDir, sha256);
+        return installedJar;
+    }
+
+    private static void pruneVersions(FilePath toolsDir, String currentSha256)
+            throws IOException, InterruptedException {
+        long now = System.currentTimeMillis();
+        for (FilePath versionDir : toolsDir.listDirectories()) {
+            if (!versionDir.getName().equals(currentSha256) && now - lastUsed(versionDir) > STALE_VERSION_MS) {
+                versionDir.deleteRecursive();
+            }
+        }
+    }
+
+    /**
+     * Falls back to the directory itself for a version that is still being copied, or that has been installed
+     * before versions were marked.
+     */
+    private static long lastUsed(FilePath versionDir) throws IOException, InterruptedException {
+        FilePath marker = versionDir.child(LAST_USED);
+        return Math.max(versionDir.lastModified(), marker.exists() ? marker.lastModified() : 0);
+    }
+
+    private static FilePath copyTo(FilePath dir, File file) throws IOException, InterruptedException {
+        FilePath target = dir.child(file.getName());
+        target.copyFrom(new FilePath(file));
+        return target;
+    }
+
+    /**
+     * @see CommandRunner#runCommand(PrintStream, Launcher, FilePath, List, long)
+     */
+    boolean run(PrintStream logger, List<String> command, long timeoutMs) throws IOException, InterruptedException {
+        return CommandRunner.runCommand(logger, launcher, workDir, command, timeoutMs);
+    }
+
+    /**
+     * @return proxy options of the agent for the java command.
+     */
+    List<String> getProxyOptions() {
+        return proxyOptions;
+    }
+
+    FilePath getToolsJar() {
+        return toolsJar;
+    }
+
+    FilePath getManifestFile() {
+        return manifestFile;
+    }
+
+    /**
+     * @return null if there are no release notes.
+     */
+    FilePath getReleaseNotesFile() {
+        return releaseNotesFile;
+    }
+
+    /**
+     * Moves the file over {@code targetName} in the same directory in one step, so that a concurrent publish on
+     * the agent never sees a partially written jar.
+     */
+    private static final class ReplaceCallable extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+        private final String targetName;
+
+        ReplaceCallable(String targetName) {
+            this.targetName = targetName;
+        }
+
+        @Override
+        public Void invoke(File file, VirtualChannel channel) throws IOException {
+            Files.move(file.toPath(), new File(file.getParentFile(), targetName).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return null;
+        }
+    }
+}
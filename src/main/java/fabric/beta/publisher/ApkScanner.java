@@ -0,0 +1,179 @@
+package fabric.beta.publisher;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the files matching Ant-style patterns on the node that holds the workspace. Unlike
+ * {@link hudson.FilePath#list(String)} it does not descend into directories that are excluded or that cannot
+ * contain a match, e.g. {@code app/build/outputs/**}{@code /*.apk} never looks outside of {@code app/build/outputs}.
+ */
+class ApkScanner extends MasterToSlaveFileCallable<ApkScanner.Result> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> includes;
+    private final List<String> excludes;
+    private final boolean followSymlinks;
+    private final int maxDepth;
+
+    /**
+     * @param includes comma-separated Ant patterns.
+     * @param excludes comma-separated Ant patterns, may be null. Directories matching one of them are skipped with
+     *                 everything below them. Ant's default excludes such as {@code **}{@code /.git} always apply.
+     * @param maxDepth how many directory levels below the workspace are visited, 0 for no limit.
+     */
+    ApkScanner(String includes, String excludes, boolean followSymlinks, int maxDepth) {
+        this.includes = patterns(includes);
+        List<String> allExcludes = patterns(excludes);
+        for (String defaultExclude : DirectoryScanner.getDefaultExcludes()) {
+            allExcludes.add(normalize(defaultExclude));
+        }
+        this.excludes = allExcludes;
+        this.followSymlinks = followSymlinks;
+        this.maxDepth = maxDepth;
+    }
+
+    @Override
+    public Result invoke(File workspace, VirtualChannel channel) throws IOException {
+        return scan(workspace);
+    }
+
+    Result scan(File workspace) throws IOException {
+        long start = System.nanoTime();
+        final Path root = workspace.toPath();
+        final List<String> matches = new ArrayList<>();
+        final int[] visited = new int[1];
+        Set<FileVisitOption> options = followSymlinks
+                ? EnumSet.of(FileVisitOption.FOLLOW_LINKS)
+                : EnumSet.noneOf(FileVisitOption.class);
+        Files.walkFileTree(root, options, maxDepth > 0 ? maxDepth : Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                visited[0]++;
+                if (dir.equals(root)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String path = relativePath(root, dir);
+                if (matchesAny(excludes, path) || !couldContainMatch(path)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                visited[0]++;
+                // without FOLLOW_LINKS a linked file is reported as the link itself
+                if (attrs.isRegularFile() || attrs.isSymbolicLink() && Files.isRegularFile(file)) {
+                    String path = relativePath(root, file);
+                    if (matchesAny(includes, path) && !matchesAny(excludes, path)) {
+                        matches.add(path.replace(File.separatorChar, '/'));
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // unreadable entries and symlink loops
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(matches);
+        return new Result(matches, visited[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private boolean couldContainMatch(String dirPath) {
+        for (String include : includes) {
+            if (SelectorUtils.matchPatternStart(include, dirPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAny(List<String> patterns, String path) {
+        for (String pattern : patterns) {
+            if (SelectorUtils.matchPath(pattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String relativePath(Path root, Path path) {
+        return root.relativize(path).toString();
+    }
+
+    private static List<String> patterns(String commaSeparated) {
+        List<String> patterns = new ArrayList<>();
+        if (commaSeparated == null) {
+            return patterns;
+        }
+        for (String pattern : commaSeparated.split(",")) {
+            pattern = pattern.trim();
+            if (!pattern.isEmpty()) {
+                patterns.add(normalize(pattern));
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * Uses the platform separator like {@link SelectorUtils} does, and treats a trailing separator as {@code **}.
+     */
+    private static String normalize(String pattern) {
+        String normalized = pattern.replace('/', File.separatorChar).replace('\\', File.separatorChar);
+        if (normalized.endsWith(File.separator)) {
+            normalized += "**";
+        }
+        return normalized;
+    }
+
+    static final class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> paths;
+        private final int visited;
+        private final long elapsedMillis;
+
+        Result(List<String> paths, int visited, long elapsedMillis) {
+            this.paths = paths;
+            this.visited = visited;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return sorted paths relative to the workspace, separated by {@code /}.
+         */
+        List<String> getPaths() {
+            return paths;
+        }
+
+        int getVisited() {
+            return visited;
+        }
+
+        long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+}
@@ -1,16 +1,23 @@
 package fabric.beta.publisher;
 
 
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
 import java.util.Locale;
 import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
-import static fabric.beta.publisher.FileUtils.createTempDirectory;
-import static fabric.beta.publisher.FileUtils.unzip;
+class AppRelease implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String BUILD_PROPERTIES_ENTRY = "assets/crashlytics-build.properties";
 
-class AppRelease {
     private final String packageName;
     private final String instanceId;
     private final String displayVersion;
@@ -23,24 +30,62 @@ class AppRelease {
         this.buildVersion = buildVersion;
     }
 
+    /**
+     * Reads the build properties where the APK lives, so only the small result travels over the channel.
+     */
+    static AppRelease from(FilePath apkFilePath) throws IOException, InterruptedException {
+        return apkFilePath.act(new AppReleaseReader());
+    }
+
+    /**
+     * Looks the build properties up through the APK's central directory, so only that one entry is read.
+     */
     static AppRelease from(File apkFile) throws IOException {
-        File dest = createTempDirectory();
-        unzip(apkFile.getAbsolutePath(), dest);
-        File propertiesFile = new File(dest, "assets/crashlytics-build.properties");
-        try (FileInputStream inputStream = new FileInputStream(propertiesFile)) {
-            Properties buildProperties = new Properties();
-            buildProperties.load(inputStream);
-            if (!buildProperties.isEmpty()) {
-                String packageName = buildProperties.getProperty("package_name");
-                String instanceId = buildProperties.getProperty("build_id");
-                String displayVersion = buildProperties.getProperty("version_name");
-                String buildVersion = buildProperties.getProperty("version_code");
-                return new AppRelease(packageName, instanceId, displayVersion, buildVersion);
+        try (ZipFile zipFile = new ZipFile(apkFile)) {
+            ZipEntry entry = zipFile.getEntry(BUILD_PROPERTIES_ENTRY);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                Properties buildProperties = new Properties();
+                buildProperties.load(inputStream);
+                if (!buildProperties.isEmpty()) {
+                    String packageName = buildProperties.getProperty("package_name");
+                    String instanceId = buildProperties.getProperty("build_id");
+                    String displayVersion = buildProperties.getProperty("version_name");
+                    String buildVersion = buildProperties.getProperty("version_code");
+                    return new AppRelease(packageName, instanceId, displayVersion, buildVersion);
+                }
+                return null;
             }
-            return null;
         }
     }
 
+    private static final class AppReleaseReader extends MasterToSlaveFileCallable<AppRelease> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public AppRelease invoke(File apkFile, VirtualChannel channel) throws IOException {
+            return from(apkFile);
+        }
+    }
+
+    String getPackageName() {
+        return packageName;
+    }
+
+    String getInstanceId() {
+        return instanceId;
+    }
+
+    String getDisplayVersion() {
+        return displayVersion;
+    }
+
+    String getBuildVersion() {
+        return buildVersion;
+    }
+
     String buildLink(String organization) {
         return String.format(Locale.US,
                 "https://fabric.io/%1$s/android/apps/%2$s/beta/releases/" +
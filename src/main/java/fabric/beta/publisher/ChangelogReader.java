@@ -3,25 +3,88 @@ package fabric.beta.publisher;
 import hudson.model.*;
 import hudson.scm.ChangeLogSet;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 class ChangelogReader {
+    private static final Logger LOGGER = Logger.getLogger(ChangelogReader.class.getName());
+
+    /**
+     * Pipeline runs expose their change sets through {@code getChangeSets()} (e.g. {@code WorkflowRun}), which isn't
+     * part of the core API this plugin builds against. The lookup is done once per run class.
+     */
+    private static final ClassValue<Method> CHANGE_SETS_METHOD = new ClassValue<Method>() {
+        @Override
+        protected Method computeValue(Class<?> type) {
+            try {
+                Method method = type.getMethod("getChangeSets");
+                return List.class.isAssignableFrom(method.getReturnType()) ? method : null;
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+    };
+
     static ChangeLogSet<? extends ChangeLogSet.Entry> getChangeLogSet(Run<?, ?> build) {
         if (build instanceof AbstractBuild) {
             return ((AbstractBuild<?, ?>) build).getChangeSet();
         }
-        ItemGroup<?> itemGroup = build.getParent().getParent();
-        for (Item item : itemGroup.getItems()) {
-            if (!item.getFullDisplayName().equals(build.getFullDisplayName())
-                    && !item.getFullDisplayName().equals(build.getParent().getFullDisplayName())) {
-                continue;
-            }
+        List<ChangeLogSet<? extends ChangeLogSet.Entry>> changeSets = getChangeSets(build);
+        if (changeSets.isEmpty()) {
+            return ChangeLogSet.createEmpty(build);
+        }
+        if (changeSets.size() == 1) {
+            return changeSets.get(0);
+        }
+        return new MergedChangeLogSet(build, changeSets);
+    }
 
-            for (Job<?, ?> job : item.getAllJobs()) {
-                if (job instanceof AbstractProject<?, ?>) {
-                    AbstractProject<?, ?> project = (AbstractProject<?, ?>) job;
-                    return project.getBuilds().getLastBuild().getChangeSet();
+    @SuppressWarnings("unchecked")
+    private static List<ChangeLogSet<? extends ChangeLogSet.Entry>> getChangeSets(Run<?, ?> build) {
+        Method method = CHANGE_SETS_METHOD.get(build.getClass());
+        if (method == null) {
+            return Collections.emptyList();
+        }
+        try {
+            List<ChangeLogSet<? extends ChangeLogSet.Entry>> changeSets =
+                    (List<ChangeLogSet<? extends ChangeLogSet.Entry>>) method.invoke(build);
+            return changeSets == null ? Collections.<ChangeLogSet<? extends ChangeLogSet.Entry>>emptyList()
+                    : changeSets;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            LOGGER.log(Level.WARNING, "Could not read change sets of " + build, e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Changes of a run that checked out several repositories.
+     */
+    private static final class MergedChangeLogSet extends ChangeLogSet<ChangeLogSet.Entry> {
+        private final List<ChangeLogSet.Entry> entries = new ArrayList<>();
+
+        MergedChangeLogSet(Run<?, ?> build, List<ChangeLogSet<? extends ChangeLogSet.Entry>> changeSets) {
+            super(build, null);
+            for (ChangeLogSet<? extends ChangeLogSet.Entry> changeSet : changeSets) {
+                for (ChangeLogSet.Entry entry : changeSet) {
+                    entries.add(entry);
                 }
             }
         }
-        return ChangeLogSet.createEmpty(build);
+
+        @Override
+        public boolean isEmptySet() {
+            return entries.isEmpty();
+        }
+
+        @Override
+        public Iterator<ChangeLogSet.Entry> iterator() {
+            return Collections.unmodifiableList(entries).iterator();
+        }
     }
 }
@@ -1,25 +1,185 @@
 package fabric.beta.publisher;
 
-import java.io.BufferedReader;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.util.ProcessTree;
+import jenkins.util.Timer;
+
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 class CommandRunner {
-    static boolean runCommand(PrintStream logger, List<String> command) throws IOException {
+    private static final Logger LOGGER = Logger.getLogger(CommandRunner.class.getName());
+    private static final String COOKIE_VARIABLE = "FABRIC_BETA_PUBLISHER_COOKIE";
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final long OUTPUT_DRAIN_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    static boolean runCommand(PrintStream logger, List<String> command) throws IOException, InterruptedException {
+        return runCommand(logger, command, 0);
+    }
+
+    /**
+     * Both output streams are copied into the log while the command runs. The command and everything it started
+     * are killed when the timeout expires or the build is aborted.
+     *
+     * @param timeoutMs wall-clock limit for the command, 0 for none.
+     * @return true if the command has exited with status 0.
+     * @throws IOException if the command could not be started or has timed out, which is worth retrying.
+     */
+    static boolean runCommand(final PrintStream logger, List<String> command, long timeoutMs)
+            throws IOException, InterruptedException {
         logger.println("Executing command: " + command);
 
-        boolean success = true;
-        Process p = new ProcessBuilder(command).start();
-        String s;
-        BufferedReader stdError = new BufferedReader(new InputStreamReader(p.getErrorStream(), "UTF-8"));
-        while ((s = stdError.readLine()) != null) {
-            logger.println(s);
-            success = false;
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        final Map<String, String> cookie = Collections.singletonMap(COOKIE_VARIABLE, UUID.randomUUID().toString());
+        processBuilder.environment().putAll(cookie);
+        final Process p = processBuilder.start();
+        p.getOutputStream().close();
+        Thread stdout = pump(p.getInputStream(), logger);
+        Thread stderr = pump(p.getErrorStream(), logger);
+
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> watchdog = null;
+        if (timeoutMs > 0) {
+            watchdog = Timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut.set(true);
+                    try {
+                        kill(p, cookie);
+                    } catch (InterruptedException e) {
+                        LOGGER.log(Level.WARNING, "Interrupted while killing timed out command", e);
+                    }
+                }
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        int exitCode;
+        try {
+            exitCode = p.waitFor();
+        } catch (InterruptedException e) {
+            logger.println("Aborted, killing command");
+            kill(p, cookie);
+            throw e;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
+        stdout.join(OUTPUT_DRAIN_TIMEOUT_MS);
+        stderr.join(OUTPUT_DRAIN_TIMEOUT_MS);
+
+        if (timedOut.get()) {
+            throw new IOException("Command timed out after " + TimeUnit.MILLISECONDS.toSeconds(timeoutMs) + " s");
+        }
+        logger.println("Command exited with status " + exitCode);
+        return exitCode == 0;
+    }
+
+    /**
+     * Runs the command through {@code launcher}, on the node it belongs to. The output is copied into the log, and
+     * the command is killed when the timeout expires or the build is aborted.
+     *
+     * @param pwd       working directory on that node.
+     * @param timeoutMs wall-clock limit for the command, 0 for none.
+     * @return true if the command has exited with status 0.
+     * @throws IOException if the command could not be started or has timed out, which is worth retrying.
+     */
+    static boolean runCommand(final PrintStream logger, Launcher launcher, FilePath pwd, List<String> command,
+                              long timeoutMs) throws IOException, InterruptedException {
+        logger.println("Executing command in " + pwd.getRemote() + ": " + command);
+
+        final Proc proc = launcher.launch().cmds(command).pwd(pwd).stdout(logger).quiet(true).start();
+
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> watchdog = null;
+        if (timeoutMs > 0) {
+            watchdog = Timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut.set(true);
+                    try {
+                        proc.kill();
+                    } catch (IOException | InterruptedException e) {
+                        LOGGER.log(Level.WARNING, "Failed to kill timed out command", e);
+                    }
+                }
+            }, timeoutMs, TimeUnit.MILLISECONDS);
         }
-        stdError.close();
-        return success;
+
+        int exitCode;
+        try {
+            exitCode = proc.join();
+        } catch (InterruptedException e) {
+            logger.println("Aborted, killing command");
+            proc.kill();
+            throw e;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
+
+        if (timedOut.get()) {
+            throw new IOException("Command timed out after " + TimeUnit.MILLISECONDS.toSeconds(timeoutMs) + " s");
+        }
+        logger.println("Command exited with status " + exitCode);
+        return exitCode == 0;
+    }
+
+    private static void kill(Process p, Map<String, String> cookie) throws InterruptedException {
+        ProcessTree.get().killAll(p, cookie);
+    }
+
+    /**
+     * Copies a stream into the log line by line on a separate thread. Lines longer than
+     * {@link #MAX_LINE_LENGTH} are split, so a single line can't grow the buffer without limit.
+     */
+    private static Thread pump(final InputStream inputStream, final PrintStream logger) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                StringBuilder line = new StringBuilder();
+                char[] buffer = new char[MAX_LINE_LENGTH];
+                try (Reader reader = new InputStreamReader(inputStream, "UTF-8")) {
+                    int read;
+                    while ((read = reader.read(buffer)) != -1) {
+                        for (int i = 0; i < read; i++) {
+                            char c = buffer[i];
+                            if (c == '\n' || line.length() >= MAX_LINE_LENGTH) {
+                                logger.println(line);
+                                line.setLength(0);
+                            }
+                            if (c != '\n' && c != '\r') {
+                                line.append(c);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to read command output", e);
+                } finally {
+                    if (line.length() > 0) {
+                        logger.println(line);
+                    }
+                }
+            }
+        }, "Fabric Beta command output");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
     }
 
 }
@@ -0,0 +1,249 @@
+package fabric.beta.publisher;
+
+import hudson.Util;
+import jenkins.model.Jenkins;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps crashlytics-devtools.jar under JENKINS_HOME so that builds don't download it every time.
+ * Each version lives in a directory named after the jar's SHA-256, and the current one is revalidated
+ * with a conditional request at most once per {@link #REVALIDATE_INTERVAL_MS}, whether or not that request succeeds.
+ */
+class CrashlyticsToolsCache {
+    private static final String TOOLS_JAR = "crashlytics-devtools.jar";
+    private static final String METADATA_FILE = "tools.properties";
+    private static final String KEY_SHA256 = "sha256";
+    private static final String KEY_PREVIOUS_SHA256 = "previousSha256";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final long REVALIDATE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(
+            Long.getLong(CrashlyticsToolsCache.class.getName() + ".revalidateMinutes", 10));
+
+    /**
+     * Held while revalidating or downloading, so that only one caller talks to the server.
+     */
+    private static final Object LOCK = new Object();
+    private static volatile long lastValidated;
+    private static volatile boolean revalidating;
+    /**
+     * The jar whose checksum has been checked last, so that it is only hashed again once it has changed on disk.
+     */
+    private static volatile VerifiedJar lastVerified;
+
+    /**
+     * A cached jar is returned right away while it is fresh or while another caller is revalidating it. Otherwise
+     * the callers are serialized, so only one of them downloads the tools and the rest reuse its result.
+     *
+     * @return path to a verified crashlytics-devtools.jar. The file is shared and must not be deleted.
+     */
+    static File get(PrintStream logger) throws IOException {
+        return get(logger, cacheDir());
+    }
+
+    static File get(PrintStream logger, File cacheDir) throws IOException {
+        File cachedJar = verifiedJar(logger, cacheDir, loadMetadata(cacheDir).getProperty(KEY_SHA256));
+        if (cachedJar != null && (revalidating || isFresh())) {
+            logger.println("Using cached " + cachedJar);
+            return cachedJar;
+        }
+        synchronized (LOCK) {
+            Properties metadata = loadMetadata(cacheDir);
+            cachedJar = verifiedJar(logger, cacheDir, metadata.getProperty(KEY_SHA256));
+            if (cachedJar != null && isFresh()) {
+                logger.println("Using cached " + cachedJar);
+                return cachedJar;
+            }
+            revalidating = cachedJar != null;
+            try {
+                File jar = revalidate(logger, cacheDir, metadata, cachedJar);
+                lastValidated = System.currentTimeMillis();
+                return jar;
+            } catch (IOException e) {
+                if (cachedJar == null) {
+                    throw e;
+                }
+                // the server is not asked again before the interval is over, so an outage doesn't slow every build
+                lastValidated = System.currentTimeMillis();
+                logger.println("Could not revalidate " + TOOLS_JAR + " (" + e.getMessage()
+                        + "), using last good copy " + cachedJar);
+                return cachedJar;
+            } finally {
+                revalidating = false;
+            }
+        }
+    }
+
+    /**
+     * Makes the next {@link #get} revalidate the cached jar.
+     */
+    static void expire() {
+        lastValidated = 0;
+    }
+
+    private static boolean isFresh() {
+        return System.currentTimeMillis() - lastValidated < REVALIDATE_INTERVAL_MS;
+    }
+
+    private static File revalidate(PrintStream logger, File cacheDir, Properties metadata, File cachedJar)
+            throws IOException {
+        String etag = cachedJar == null ? null : metadata.getProperty(KEY_ETAG);
+        String lastModified = cachedJar == null ? null : metadata.getProperty(KEY_LAST_MODIFIED);
+        Response<ResponseBody> response = FabricApi.service().crashlyticsTools(logger, etag, lastModified).execute();
+        if (response.code() == 304 && cachedJar != null) {
+            logger.println(TOOLS_JAR + " is up to date");
+            return cachedJar;
+        }
+        if (!response.isSuccessful() || response.body() == null) {
+            throw new IOException("Unexpected response " + response.code() + " while downloading crashlytics.zip");
+        }
+
+        File crashlyticsZip = File.createTempFile("crashlytics", ".zip", cacheDir);
+        File stagingDir = new File(cacheDir, "staging-" + System.nanoTime());
+        try (ResponseBody body = response.body()) {
+            FileUtils.writeResponseBodyToDisk(crashlyticsZip, body);
+            ZipExtractor.extract(crashlyticsZip, stagingDir, ZipExtractor.only(TOOLS_JAR));
+            File stagedJar = new File(stagingDir, TOOLS_JAR);
+            if (!stagedJar.isFile()) {
+                throw new IOException("crashlytics.zip does not contain " + TOOLS_JAR);
+            }
+            String sha256 = FileUtils.sha256(stagedJar);
+            File versionDir = new File(cacheDir, sha256);
+            if (!versionDir.isDirectory()) {
+                Files.move(stagingDir.toPath(), versionDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            String currentSha256 = metadata.getProperty(KEY_SHA256);
+            Properties updated = new Properties();
+            updated.setProperty(KEY_SHA256, sha256);
+            if (currentSha256 != null && !currentSha256.equals(sha256)) {
+                updated.setProperty(KEY_PREVIOUS_SHA256, currentSha256);
+            } else if (metadata.getProperty(KEY_PREVIOUS_SHA256) != null) {
+                updated.setProperty(KEY_PREVIOUS_SHA256, metadata.getProperty(KEY_PREVIOUS_SHA256));
+            }
+            putIfNotNull(updated, KEY_ETAG, response.headers().get("ETag"));
+            putIfNotNull(updated, KEY_LAST_MODIFIED, response.headers().get("Last-Modified"));
+            storeMetadata(cacheDir, updated);
+            pruneVersions(cacheDir, updated);
+
+            logger.println("Cached " + TOOLS_JAR + " version " + sha256);
+            return new File(versionDir, TOOLS_JAR);
+        } finally {
+            Files.deleteIfExists(crashlyticsZip.toPath());
+            if (stagingDir.exists()) {
+                Util.deleteRecursive(stagingDir);
+            }
+        }
+    }
+
+    private static File verifiedJar(PrintStream logger, File cacheDir, String sha256) throws IOException {
+        if (sha256 == null) {
+            return null;
+        }
+        File jar = new File(new File(cacheDir, sha256), TOOLS_JAR);
+        if (!jar.isFile()) {
+            return null;
+        }
+        VerifiedJar verified = new VerifiedJar(jar);
+        if (verified.equals(lastVerified)) {
+            return jar;
+        }
+        if (!sha256.equals(FileUtils.sha256(jar))) {
+            logger.println("Cached " + jar + " is corrupted, discarding it");
+            Util.deleteRecursive(jar.getParentFile());
+            return null;
+        }
+        lastVerified = verified;
+        return jar;
+    }
+
+    /**
+     * Keeps the current and the previous version, since a running build may still be using the latter.
+     */
+    private static void pruneVersions(File cacheDir, Properties metadata) throws IOException {
+        File[] children = cacheDir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()
+                    && !child.getName().startsWith("staging-")
+                    && !child.getName().equals(metadata.getProperty(KEY_SHA256))
+                    && !child.getName().equals(metadata.getProperty(KEY_PREVIOUS_SHA256))) {
+                Util.deleteRecursive(child);
+            }
+        }
+    }
+
+    private static Properties loadMetadata(File cacheDir) throws IOException {
+        Properties metadata = new Properties();
+        File metadataFile = new File(cacheDir, METADATA_FILE);
+        if (metadataFile.isFile()) {
+            try (InputStream inputStream = new FileInputStream(metadataFile)) {
+                metadata.load(inputStream);
+            }
+        }
+        return metadata;
+    }
+
+    private static void storeMetadata(File cacheDir, Properties metadata) throws IOException {
+        File tempFile = File.createTempFile(METADATA_FILE, ".tmp", cacheDir);
+        try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+            metadata.store(outputStream, null);
+        }
+        Files.move(tempFile.toPath(), new File(cacheDir, METADATA_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void putIfNotNull(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    private static File cacheDir() throws IOException {
+        File cacheDir = new File(Jenkins.getActiveInstance().getRootDir(), "fabric-beta-publisher/tools");
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("Could not create tools cache directory: " + cacheDir.getAbsolutePath());
+        }
+        return cacheDir;
+    }
+
+    private static final class VerifiedJar {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+
+        VerifiedJar(File file) {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof VerifiedJar)) {
+                return false;
+            }
+            VerifiedJar other = (VerifiedJar) o;
+            return file.equals(other.file) && length == other.length && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return file.hashCode();
+        }
+    }
+}
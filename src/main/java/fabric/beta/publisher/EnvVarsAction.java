@@ -9,7 +9,7 @@ import java.util.Map;
 class EnvVarsAction implements Action {
     private transient Map<String, String> data = new HashMap<>();
 
-    void add(PrintStream logger, String key, String value) {
+    synchronized void add(PrintStream logger, String key, String value) {
         if (data == null) return;
         logger.println("Setting environment variable " + key + " = " + value);
         data.put(key, value);
@@ -1,35 +1,99 @@
 package fabric.beta.publisher;
 
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.Response;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Retrofit;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * One service per base URL, built on one client whose connection pool and dispatcher all builds share. Requests are
+ * logged into the build log passed along with each call of {@link FabricService}.
+ */
 class FabricApi {
-    private static FabricService service;
+    private static final String PROPERTY_PREFIX = FabricApi.class.getName() + ".";
+    private static final String DEFAULT_BASE_URL = "https://ssl-download-crashlytics-com.s3.amazonaws.com/";
+    private static final long CONNECT_TIMEOUT_SECONDS = Long.getLong(PROPERTY_PREFIX + "connectTimeoutSeconds", 60);
+    private static final long READ_TIMEOUT_SECONDS = Long.getLong(PROPERTY_PREFIX + "readTimeoutSeconds", 60);
+    private static final long WRITE_TIMEOUT_SECONDS = Long.getLong(PROPERTY_PREFIX + "writeTimeoutSeconds", 60);
+    private static final int MAX_IDLE_CONNECTIONS = Integer.getInteger(PROPERTY_PREFIX + "maxIdleConnections", 10);
+    private static final long KEEP_ALIVE_SECONDS = Long.getLong(PROPERTY_PREFIX + "keepAliveSeconds", 300);
+    private static final int MAX_REQUESTS_PER_HOST = Integer.getInteger(PROPERTY_PREFIX + "maxRequestsPerHost", 16);
 
-    static FabricService service(PrintStream logger) {
+    private static final AtomicLong connectionsOpened = new AtomicLong();
+    private static final AtomicLong connectionsAcquired = new AtomicLong();
+    private static final OkHttpClient SHARED_CLIENT = sharedClient();
+    private static final ConcurrentMap<String, FabricService> SERVICES = new ConcurrentHashMap<>();
+
+    static FabricService service() {
+        String baseUrl = System.getProperty(PROPERTY_PREFIX + "baseUrl", DEFAULT_BASE_URL);
+        FabricService service = SERVICES.get(baseUrl);
         if (service == null) {
-            service = retrofit(logger).create(FabricService.class);
+            SERVICES.putIfAbsent(baseUrl, new Retrofit.Builder()
+                    .baseUrl(baseUrl)
+                    .client(SHARED_CLIENT)
+                    .build()
+                    .create(FabricService.class));
+            service = SERVICES.get(baseUrl);
         }
         return service;
     }
 
-    private static Retrofit retrofit(PrintStream logger) {
-        return new Retrofit.Builder()
-                .baseUrl("https://ssl-download-crashlytics-com.s3.amazonaws.com/")
-                .client(client(logger))
-                .build();
+    /**
+     * @return state of the shared connection pool, whose {@code toString} is a one-line summary.
+     */
+    static PublishTimingAction.ConnectionStatistics statistics() {
+        ConnectionPool pool = SHARED_CLIENT.connectionPool();
+        long acquired = connectionsAcquired.get();
+        long reused = Math.max(0, acquired - connectionsOpened.get());
+        return new PublishTimingAction.ConnectionStatistics(pool.connectionCount(), pool.idleConnectionCount(),
+                SHARED_CLIENT.dispatcher().runningCallsCount(), acquired, reused);
     }
 
-    private static OkHttpClient client(final PrintStream logger) {
+    private static OkHttpClient sharedClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
         return new OkHttpClient.Builder()
-                .addNetworkInterceptor(interceptor(logger))
-                .readTimeout(60, TimeUnit.SECONDS)
-                .connectTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(60, TimeUnit.SECONDS)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .addNetworkInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        PrintStream logger = chain.request().tag(PrintStream.class);
+                        if (logger == null) {
+                            return chain.proceed(chain.request());
+                        }
+                        return interceptor(logger).intercept(chain);
+                    }
+                })
+                .eventListener(new EventListener() {
+                    @Override
+                    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+                        connectionsOpened.incrementAndGet();
+                    }
+
+                    @Override
+                    public void connectionAcquired(Call call, Connection connection) {
+                        connectionsAcquired.incrementAndGet();
+                    }
+                })
+                .readTimeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .connectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .writeTimeout(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
                 .build();
     }
 
@@ -1,6 +1,7 @@
 package fabric.beta.publisher;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.Futures;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
@@ -12,37 +13,59 @@ import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Publisher;
 import hudson.tasks.Recorder;
 import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
 import jenkins.tasks.SimpleBuildStep;
 import net.sf.json.JSONObject;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import static fabric.beta.publisher.ChangelogReader.getChangeLogSet;
 import static fabric.beta.publisher.CommandRunner.runCommand;
 import static fabric.beta.publisher.FileUtils.*;
-import static fabric.beta.publisher.ReleaseNotesFormatter.getReleaseNotes;
+import static fabric.beta.publisher.ReleaseNotesFormatter.writeReleaseNotes;
 
 public class FabricBetaPublisher extends Recorder implements SimpleBuildStep {
+    private static final Logger LOGGER = Logger.getLogger(FabricBetaPublisher.class.getName());
     static final String RELEASE_NOTES_TYPE_FILE = "RELEASE_NOTES_FILE";
     static final String RELEASE_NOTES_TYPE_PARAMETER = "RELEASE_NOTES_PARAMETER";
     static final String RELEASE_NOTES_TYPE_CHANGELOG = "RELEASE_NOTES_FROM_CHANGELOG";
+    static final String RELEASE_NOTES_TYPE_CHANGELOG_SINCE_LAST_PUBLISH =
+            "RELEASE_NOTES_FROM_CHANGELOG_SINCE_LAST_PUBLISH";
     static final String RELEASE_NOTES_TYPE_NONE = "RELEASE_NOTES_NONE";
     private static final String ENV_VAR_BUILD_URL = "FABRIC_BETA_BUILD_URL";
     private static final String NOTIFY_TESTERS_TYPE_NONE = "NOTIFY_TESTERS_NONE";
     private static final String NOTIFY_TESTERS_TYPE_EMAILS = "NOTIFY_TESTERS_EMAILS";
     private static final String NOTIFY_TESTERS_GROUP = "NOTIFY_TESTERS_GROUP";
 
+    private static final int DEFAULT_MAX_PARALLEL_UPLOADS = 1;
+    private static final int DEFAULT_UPLOAD_ATTEMPTS = 1;
+    private static final int DEFAULT_RETRY_DELAY_SECONDS = 10;
+    private static final int DEFAULT_MAX_RELEASE_NOTES_CHANGES = 100;
+
     private final String apiKey;
     private final String buildSecret;
     private final String releaseNotesType;
@@ -54,6 +77,18 @@ public class FabricBetaPublisher extends Recorder implements SimpleBuildStep {
     private final String testersGroup;
     private final String organization;
     private final boolean useAntStyleInclude;
+    private int maxParallelUploads = DEFAULT_MAX_PARALLEL_UPLOADS;
+    private boolean reuseUploadJvm;
+    private boolean nativeUpload;
+    private int uploadAttempts = DEFAULT_UPLOAD_ATTEMPTS;
+    private Integer retryDelaySeconds = DEFAULT_RETRY_DELAY_SECONDS;
+    private int uploadTimeoutMinutes;
+    private boolean skipDuplicateUploads;
+    private int maxReleaseNotesChanges = DEFAULT_MAX_RELEASE_NOTES_CHANGES;
+    private String apkExcludes;
+    private Boolean followSymlinks = true;
+    private int maxScanDepth;
+    private boolean uploadOnAgent;
 
     @DataBoundConstructor
     public FabricBetaPublisher(String apiKey, String buildSecret, String releaseNotesType, String notifyTestersType,
@@ -73,6 +108,89 @@ public class FabricBetaPublisher extends Recorder implements SimpleBuildStep {
         this.useAntStyleInclude = useAntStyleInclude;
     }
 
+    @DataBoundSetter
+    public void setMaxParallelUploads(int maxParallelUploads) {
+        this.maxParallelUploads = maxParallelUploads;
+    }
+
+    @DataBoundSetter
+    public void setReuseUploadJvm(boolean reuseUploadJvm) {
+        this.reuseUploadJvm = reuseUploadJvm;
+    }
+
+    @DataBoundSetter
+    public void setNativeUpload(boolean nativeUpload) {
+        this.nativeUpload = nativeUpload;
+    }
+
+    @DataBoundSetter
+    public void setUploadAttempts(int uploadAttempts) {
+        this.uploadAttempts = uploadAttempts;
+    }
+
+    @DataBoundSetter
+    public void setRetryDelaySeconds(int retryDelaySeconds) {
+        this.retryDelaySeconds = retryDelaySeconds;
+    }
+
+    @DataBoundSetter
+    public void setUploadTimeoutMinutes(int uploadTimeoutMinutes) {
+        this.uploadTimeoutMinutes = uploadTimeoutMinutes;
+    }
+
+    @DataBoundSetter
+    public void setSkipDuplicateUploads(boolean skipDuplicateUploads) {
+        this.skipDuplicateUploads = skipDuplicateUploads;
+    }
+
+    @DataBoundSetter
+    public void setMaxReleaseNotesChanges(int maxReleaseNotesChanges) {
+        this.maxReleaseNotesChanges = maxReleaseNotesChanges;
+    }
+
+    @DataBoundSetter
+    public void setApkExcludes(String apkExcludes) {
+        this.apkExcludes = apkExcludes;
+    }
+
+    @DataBoundSetter
+    public void setFollowSymlinks(boolean followSymlinks) {
+        this.followSymlinks = followSymlinks;
+    }
+
+    @DataBoundSetter
+    public void setMaxScanDepth(int maxScanDepth) {
+        this.maxScanDepth = maxScanDepth;
+    }
+
+    @DataBoundSetter
+    public void setUploadOnAgent(boolean uploadOnAgent) {
+        this.uploadOnAgent = uploadOnAgent;
+    }
+
+    /**
+     * XStream doesn't run field initializers, so options that were added later are missing from older job
+     * configurations and have to get their defaults here.
+     */
+    protected Object readResolve() {
+        if (maxParallelUploads < 1) {
+            maxParallelUploads = DEFAULT_MAX_PARALLEL_UPLOADS;
+        }
+        if (uploadAttempts < 1) {
+            uploadAttempts = DEFAULT_UPLOAD_ATTEMPTS;
+        }
+        if (retryDelaySeconds == null) {
+            retryDelaySeconds = DEFAULT_RETRY_DELAY_SECONDS;
+        }
+        if (maxReleaseNotesChanges < 1) {
+            maxReleaseNotesChanges = DEFAULT_MAX_RELEASE_NOTES_CHANGES;
+        }
+        if (followSymlinks == null) {
+            followSymlinks = true;
+        }
+        return this;
+    }
+
     @Override
     public boolean perform(@Nonnull AbstractBuild<?, ?> build, @Nonnull Launcher launcher,
                            @Nonnull BuildListener listener) throws IOException, InterruptedException {
@@ -82,7 +200,8 @@ public class FabricBetaPublisher extends Recorder implements SimpleBuildStep {
             logger.println("Aborting Fabric Beta upload since build has failed.");
             return false;
         }
-        return publishFabric(build, build.getEnvironment(listener), build.getWorkspace(), logger, getChangeLogSet(build));
+        return publishFabric(build, build.getEnvironment(listener), build.getWorkspace(), launcher, logger,
+                getChangeLogSet(build));
     }
 
     @Override
@@ -95,83 +214,513 @@ public class FabricBetaPublisher extends Recorder implements SimpleBuildStep {
             build.setResult(Result.FAILURE);
             return;
         }
-        boolean success = publishFabric(build, build.getEnvironment(listener), workspace, logger, getChangeLogSet(build));
+        boolean success = publishFabric(build, build.getEnvironment(listener), workspace, launcher, logger,
+                getChangeLogSet(build));
         if (!success) {
             build.setResult(Result.FAILURE);
         }
     }
 
+    /**
+     * Publishes outside of a build step, used by {@link FabricBetaUploadStep}.
+     *
+     * @param workspace directory the APK paths are resolved against.
+     * @return true if all APKs have been published successfully.
+     */
+    boolean publish(Run build, EnvVars environment, FilePath workspace, PrintStream logger)
+            throws IOException, InterruptedException {
+        Launcher launcher = workspace.createLauncher(new StreamTaskListener(logger));
+        return publishFabric(build, environment, workspace, launcher, logger, getChangeLogSet(build));
+    }
+
     /**
      * @return true if all APKs have been published successfully.
      */
-    private boolean publishFabric(Run build, EnvVars environment, FilePath workspace, PrintStream logger,
-                                  ChangeLogSet<? extends ChangeLogSet.Entry> changeLogSet)
+    private boolean publishFabric(Run build, EnvVars environment, FilePath workspace, Launcher launcher,
+                                  PrintStream logger, ChangeLogSet<? extends ChangeLogSet.Entry> changeLogSet)
             throws InterruptedException, IOException {
         logger.println("Fabric Beta Publisher Plugin:");
 
-        File manifestFile = getManifestFile();
+        PublishTimingAction timings = build.getAction(PublishTimingAction.class);
+        if (timings == null) {
+            timings = new PublishTimingAction();
+            build.addAction(timings);
+        }
 
-        File crashlyticsToolsFile = prepareCrashlytics(logger, manifestFile);
-        if (crashlyticsToolsFile == null) {
-            return false;
+        long startTimeMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        try (TempWorkspace tempWorkspace = TempWorkspace.create()) {
+            return publishFabric(build, environment, workspace, launcher, logger, changeLogSet, timings,
+                    tempWorkspace);
+        } finally {
+            timings.recordPublish(startTimeMillis, startNanos);
+            PublishTimingAction.ConnectionStatistics connections = FabricApi.statistics();
+            timings.recordConnections(connections);
+            LOGGER.log(Level.FINE, "{0}", connections);
         }
+    }
 
-        String releaseNotes = getReleaseNotes(
-                changeLogSet, releaseNotesType, releaseNotesParameter, releaseNotesFile, environment, workspace);
+    /**
+     * Tools and release notes are prepared in the background while the APKs are discovered, hashed and staged.
+     * An upload only waits for them once its APK is ready.
+     */
+    private boolean publishFabric(final Run build, final EnvVars environment, final FilePath workspace,
+                                  final Launcher launcher, final PrintStream logger,
+                                  final ChangeLogSet<? extends ChangeLogSet.Entry> changeLogSet,
+                                  final PublishTimingAction timings, final TempWorkspace tempWorkspace)
+            throws InterruptedException, IOException {
+        final File manifestFile = getManifestFile(tempWorkspace);
+        // only release notes aggregated since the last publish look back at earlier builds
+        ReleaseNotesAction releaseNotesAction =
+                RELEASE_NOTES_TYPE_CHANGELOG_SINCE_LAST_PUBLISH.equals(releaseNotesType)
+                        ? ReleaseNotesAction.of(build, changeLogSet) : null;
+        FilePath agentWorkDir = null;
 
-        EnvVarsAction envVarsAction = null;
-        if (!Strings.isNullOrEmpty(organization)) {
-            envVarsAction = new EnvVarsAction();
-        } else {
-            logger.println("Skipped constructing Fabric Beta link because organization is not set.");
+        ExecutorService stages = Executors.newCachedThreadPool(
+                new NamingThreadFactory(Executors.defaultThreadFactory(), "Fabric Beta publish stage"));
+        try {
+            Future<File> crashlyticsToolsFile = Futures.immediateFuture(null);
+            if (!nativeUpload) {
+                crashlyticsToolsFile = stages.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        long start = System.nanoTime();
+                        File toolsFile = prepareCrashlytics(logger);
+                        if (toolsFile != null) {
+                            timings.record(null, PublishTimingAction.PHASE_TOOLS, start, toolsFile.length());
+                        }
+                        return toolsFile;
+                    }
+                });
+            }
+            Future<File> renderedReleaseNotes = stages.submit(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    long start = System.nanoTime();
+                    File releaseNotes =
+                            tempWorkspace.newFile("release-notes", ".txt", ReleaseNotesFormatter.MAX_BYTES);
+                    if (!writeReleaseNotes(build, changeLogSet, releaseNotesType, releaseNotesParameter,
+                            releaseNotesFile, maxReleaseNotesChanges, environment, workspace, releaseNotes, logger)) {
+                        tempWorkspace.delete(logger, releaseNotes);
+                        releaseNotes = null;
+                    }
+                    timings.record(null, PublishTimingAction.PHASE_RELEASE_NOTES, start);
+                    return releaseNotes;
+                }
+            });
+
+            Future<AgentUpload> agentUpload = Futures.immediateFuture(null);
+            if (uploadsOnAgent(workspace)) {
+                final FilePath agentRoot = AgentUpload.agentRoot(workspace);
+                agentRoot.child("tmp").mkdirs();
+                final FilePath workDir = agentWorkDir = agentRoot.child("tmp").createTempDir("publish", null);
+                final Future<File> toolsFile = crashlyticsToolsFile;
+                final Future<File> releaseNotes = renderedReleaseNotes;
+                agentUpload = stages.submit(new Callable<AgentUpload>() {
+                    @Override
+                    public AgentUpload call() throws Exception {
+                        File tools = await(toolsFile);
+                        if (tools == null) {
+                            return null;
+                        }
+                        return AgentUpload.prepare(logger, launcher, agentRoot, workDir, tools, manifestFile,
+                                await(releaseNotes));
+                    }
+                });
+            }
+
+            EnvVarsAction envVarsAction = null;
+            if (!Strings.isNullOrEmpty(organization)) {
+                envVarsAction = new EnvVarsAction();
+            } else {
+                logger.println("Skipped constructing Fabric Beta link because organization is not set.");
+            }
+
+            long discoveryStart = System.nanoTime();
+            List<FilePath> apkFilePaths = getApkFilePaths(environment, workspace, logger);
+            timings.record(null, PublishTimingAction.PHASE_DISCOVERY, discoveryStart);
+            boolean success = !apkFilePaths.isEmpty();
+            if (maxParallelUploads > 1 && apkFilePaths.size() > 1) {
+                success &= uploadApkFilesInParallel(envVarsAction, timings, tempWorkspace, environment, logger,
+                        manifestFile, crashlyticsToolsFile, renderedReleaseNotes, agentUpload, apkFilePaths);
+            } else {
+                success &= uploadApkFilesInSequence(stages, envVarsAction, timings, tempWorkspace, environment,
+                        logger, manifestFile, crashlyticsToolsFile, renderedReleaseNotes, agentUpload, apkFilePaths);
+            }
+            if (envVarsAction != null) {
+                build.addAction(envVarsAction);
+            }
+            if (success && releaseNotesAction != null) {
+                releaseNotesAction.markPublished();
+            }
+            return success;
+        } finally {
+            stages.shutdownNow();
+            // cancelled stages must not outlive the temporary files they work on
+            if (!stages.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.println("Background preparation has not stopped within a minute");
+            }
+            if (agentWorkDir != null) {
+                agentWorkDir.deleteRecursive();
+            }
         }
+    }
 
-        List<FilePath> apkFilePaths = getApkFilePaths(environment, workspace);
-        boolean success = !apkFilePaths.isEmpty();
-        for (int apkIndex = 0; apkIndex < apkFilePaths.size(); apkIndex++) {
-            success &= uploadApkFile(envVarsAction, apkIndex, environment, logger, manifestFile, crashlyticsToolsFile,
-                    releaseNotes, apkFilePaths.get(apkIndex));
+    /**
+     * @return true if crashlytics-devtools.jar runs on the agent holding {@code filePath}, which may be the
+     * workspace or an APK in it.
+     */
+    private boolean uploadsOnAgent(FilePath filePath) {
+        return uploadOnAgent && !nativeUpload && filePath.isRemote();
+    }
+
+    /**
+     * Uploads one APK at a time, while the next one is already being prepared. The output of preparing the next APK
+     * is held back until its turn, so that it doesn't get mixed up with the output of the current upload.
+     *
+     * @return true if all APKs have been uploaded successfully.
+     */
+    private boolean uploadApkFilesInSequence(ExecutorService stages, EnvVarsAction envVarsAction,
+                                             PublishTimingAction timings, TempWorkspace tempWorkspace,
+                                             EnvVars environment, PrintStream logger, File manifestFile,
+                                             Future<File> crashlyticsToolsFile, Future<File> renderedReleaseNotes,
+                                             Future<AgentUpload> agentUpload, List<FilePath> apkFilePaths)
+            throws IOException, InterruptedException {
+        boolean success = true;
+        Future<PreparedApk> next = null;
+        ByteArrayOutputStream nextLog = null;
+        try {
+            for (int apkIndex = 0; apkIndex < apkFilePaths.size(); apkIndex++) {
+                PreparedApk preparedApk = null;
+                boolean prefetched = next != null;
+                if (prefetched) {
+                    // the prefetch is waited for even when it won't be uploaded, so its output comes in order
+                    try {
+                        preparedApk = await(next);
+                    } finally {
+                        next = null;
+                        logger.print(nextLog.toString("UTF-8"));
+                    }
+                }
+                if (toolsFailed(crashlyticsToolsFile)) {
+                    logger.println("Skipping the remaining " + (apkFilePaths.size() - apkIndex)
+                            + " APKs, since crashlytics-devtools.jar is not available");
+                    return false;
+                }
+                if (!prefetched) {
+                    preparedApk = prepareApkFile(envVarsAction, timings, tempWorkspace, apkIndex, environment,
+                            logger, apkFilePaths.get(apkIndex));
+                }
+                if (apkIndex + 1 < apkFilePaths.size() && !toolsFailed(crashlyticsToolsFile)) {
+                    nextLog = new ByteArrayOutputStream();
+                    next = submitPrepareApkFile(stages, envVarsAction, timings, tempWorkspace, apkIndex + 1,
+                            environment, new PrintStream(nextLog, true, "UTF-8"), apkFilePaths.get(apkIndex + 1));
+                }
+                success &= uploadPreparedApkFile(timings, tempWorkspace, environment, logger, manifestFile,
+                        crashlyticsToolsFile, renderedReleaseNotes, agentUpload, preparedApk);
+            }
+            return success;
+        } finally {
+            if (next != null) {
+                next.cancel(true);
+            }
+        }
+    }
+
+    private Future<PreparedApk> submitPrepareApkFile(ExecutorService stages, final EnvVarsAction envVarsAction,
+                                                     final PublishTimingAction timings,
+                                                     final TempWorkspace tempWorkspace, final int apkIndex,
+                                                     final EnvVars environment, final PrintStream logger,
+                                                     final FilePath apkFilePath) {
+        return stages.submit(new Callable<PreparedApk>() {
+            @Override
+            public PreparedApk call() throws Exception {
+                return prepareApkFile(envVarsAction, timings, tempWorkspace, apkIndex, environment, logger,
+                        apkFilePath);
+            }
+        });
+    }
+
+    /**
+     * Uploads up to {@link #maxParallelUploads} APKs at a time. Each upload logs into the build log as it goes, with
+     * every line prefixed by the name of its APK.
+     *
+     * @return true if all APKs have been uploaded successfully.
+     */
+    private boolean uploadApkFilesInParallel(final EnvVarsAction envVarsAction, final PublishTimingAction timings,
+                                             final TempWorkspace tempWorkspace, final EnvVars environment,
+                                             final PrintStream logger, final File manifestFile,
+                                             final Future<File> crashlyticsToolsFile,
+                                             final Future<File> renderedReleaseNotes,
+                                             final Future<AgentUpload> agentUpload, List<FilePath> apkFilePaths)
+            throws IOException, InterruptedException {
+        int threads = Math.min(maxParallelUploads, apkFilePaths.size());
+        logger.println("Uploading " + apkFilePaths.size() + " APKs, " + threads + " at a time");
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new NamingThreadFactory(Executors.defaultThreadFactory(), "Fabric Beta upload"));
+        try {
+            List<Future<Boolean>> uploads = new ArrayList<>();
+            for (int apkIndex = 0; apkIndex < apkFilePaths.size(); apkIndex++) {
+                final int index = apkIndex;
+                final FilePath apkFilePath = apkFilePaths.get(apkIndex);
+                logger.println("[" + apkFilePath.getName() + "] " + apkFilePath.getRemote());
+                uploads.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        try (PrintStream uploadLogger = new PrintStream(
+                                new LinePrefixOutputStream(logger, "[" + apkFilePath.getName() + "] "), true,
+                                "UTF-8")) {
+                            if (toolsFailed(crashlyticsToolsFile)) {
+                                uploadLogger.println("Skipped, since crashlytics-devtools.jar is not available");
+                                return false;
+                            }
+                            PreparedApk preparedApk = prepareApkFile(envVarsAction, timings, tempWorkspace, index,
+                                    environment, uploadLogger, apkFilePath);
+                            return uploadPreparedApkFile(timings, tempWorkspace, environment, uploadLogger,
+                                    manifestFile, crashlyticsToolsFile, renderedReleaseNotes, agentUpload,
+                                    preparedApk);
+                        }
+                    }
+                }));
+            }
+
+            boolean success = true;
+            Throwable failure = null;
+            for (int apkIndex = 0; apkIndex < uploads.size(); apkIndex++) {
+                try {
+                    success &= uploads.get(apkIndex).get();
+                } catch (ExecutionException e) {
+                    success = false;
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof InterruptedException) {
+                throw (InterruptedException) failure;
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+            return success;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Hashes, reads and stages an APK, everything that can be done before tools and release notes are ready.
+     */
+    private PreparedApk prepareApkFile(EnvVarsAction envVarsAction, PublishTimingAction timings,
+                                       TempWorkspace tempWorkspace, int apkIndex, EnvVars environment,
+                                       PrintStream logger, FilePath apkFilePath)
+            throws IOException, InterruptedException {
+        String apkName = apkFilePath.getName();
+        String ledgerKey = null;
+        if (skipDuplicateUploads) {
+            long start = System.nanoTime();
+            String apkSha256 = FileUtils.sha256(apkFilePath);
+            timings.record(apkName, PublishTimingAction.PHASE_HASH, start, apkFilePath.length());
+            ledgerKey = UploadLedger.key(apkSha256, expand(environment, apiKey), distributionTarget(environment));
+            UploadLedger.Entry entry = UploadLedger.get().find(ledgerKey);
+            if (entry != null) {
+                logger.println("Skipping upload of " + apkFilePath.getName() + " since identical "
+                        + entry.getApkName() + " has been published on " + new Date(entry.getTimestamp()));
+                if (envVarsAction != null) {
+                    String buildUrl = entry.getBuildUrl() != null
+                            ? entry.getBuildUrl() : readAppRelease(apkFilePath).buildLink(organization);
+                    saveBuildLinks(logger, envVarsAction, apkIndex, buildUrl);
+                }
+                return null;
+            }
         }
-        if (envVarsAction != null) {
-            build.addAction(envVarsAction);
+
+        AppRelease appRelease = null;
+        String buildUrl = null;
+        if (envVarsAction != null || nativeUpload) {
+            long start = System.nanoTime();
+            appRelease = readAppRelease(apkFilePath);
+            timings.record(apkName, PublishTimingAction.PHASE_METADATA, start);
+            if (envVarsAction != null) {
+                buildUrl = appRelease.buildLink(organization);
+                saveBuildLinks(logger, envVarsAction, apkIndex, buildUrl);
+            }
         }
-        FileUtils.delete(logger, manifestFile, crashlyticsToolsFile);
-        return success;
+
+        File stagedApkFile = null;
+        if (!nativeUpload && apkFilePath.isRemote() && !uploadsOnAgent(apkFilePath)) {
+            long start = System.nanoTime();
+            stagedApkFile = FileUtils.createTemporaryUploadFile(logger, tempWorkspace, apkFilePath);
+            timings.record(apkName, PublishTimingAction.PHASE_STAGING, start, stagedApkFile.length());
+        }
+        return new PreparedApk(apkFilePath, appRelease, ledgerKey, buildUrl, stagedApkFile);
     }
 
     /**
+     * @param preparedApk null if the APK has been skipped.
      * @return true if APK file has been uploaded successfuly.
      */
-    private boolean uploadApkFile(EnvVarsAction envVarsAction, int apkIndex, EnvVars environment,
-                                  PrintStream logger, File manifestFile, File crashlyticsToolsFile, String releaseNotes,
-                                  FilePath apkFilePath) throws IOException, InterruptedException {
-        File apkFile;
-        boolean shouldDeleteApk;
-        if (apkFilePath.isRemote()) {
-            apkFile = FileUtils.createTemporaryUploadFile(apkFilePath.read());
-            shouldDeleteApk = true;
-        } else {
-            apkFile = new File(apkFilePath.toURI());
-            shouldDeleteApk = false;
+    private boolean uploadPreparedApkFile(PublishTimingAction timings, TempWorkspace tempWorkspace,
+                                          EnvVars environment, PrintStream logger, File manifestFile,
+                                          Future<File> crashlyticsToolsFile, Future<File> renderedReleaseNotes,
+                                          Future<AgentUpload> agentUpload, PreparedApk preparedApk)
+            throws IOException, InterruptedException {
+        if (preparedApk == null) {
+            return true;
         }
+        try {
+            if (!crashlyticsToolsFile.isDone() || !renderedReleaseNotes.isDone()) {
+                logger.println("Waiting for crashlytics-devtools.jar and release notes");
+            }
+            File toolsFile = await(crashlyticsToolsFile);
+            if (!nativeUpload && toolsFile == null) {
+                return false;
+            }
+            AgentUpload agent = null;
+            if (uploadsOnAgent(preparedApk.apkFilePath)) {
+                agent = await(agentUpload);
+                if (agent == null) {
+                    return false;
+                }
+            }
+            boolean success = transferApkFile(timings, environment, logger, manifestFile, toolsFile,
+                    await(renderedReleaseNotes), agent, preparedApk);
+            if (success && preparedApk.ledgerKey != null) {
+                UploadLedger.get().record(preparedApk.ledgerKey, preparedApk.buildUrl,
+                        preparedApk.apkFilePath.getName());
+            }
+            return success;
+        } finally {
+            if (preparedApk.stagedApkFile != null) {
+                tempWorkspace.delete(logger, preparedApk.stagedApkFile);
+            }
+        }
+    }
 
-        if (envVarsAction != null) {
-            AppRelease appRelease = AppRelease.from(apkFile);
-            if (appRelease == null) {
-                throw new InterruptedIOException("Could not read APK properties for apk " + apkFile);
-            } else {
-                saveBuildLinks(logger, envVarsAction, apkIndex, appRelease.buildLink(organization));
+    private AppRelease readAppRelease(FilePath apkFilePath) throws IOException, InterruptedException {
+        AppRelease appRelease = AppRelease.from(apkFilePath);
+        if (appRelease == null) {
+            throw new InterruptedIOException("Could not read APK properties for apk " + apkFilePath);
+        }
+        return appRelease;
+    }
+
+    private boolean transferApkFile(final PublishTimingAction timings, final EnvVars environment,
+                                    final PrintStream logger, final File manifestFile,
+                                    final File crashlyticsToolsFile, final File renderedReleaseNotes,
+                                    final AgentUpload agentUpload, PreparedApk preparedApk)
+            throws IOException, InterruptedException {
+        final FilePath apkFilePath = preparedApk.apkFilePath;
+        final AppRelease appRelease = preparedApk.appRelease;
+        final String apkName = apkFilePath.getName();
+        RetryPolicy retryPolicy = new RetryPolicy(uploadAttempts, TimeUnit.SECONDS.toMillis(retryDelaySeconds));
+        String uploadDescription = "Upload of " + apkName;
+        if (nativeUpload) {
+            final NativeUploader uploader =
+                    new NativeUploader(FabricApi.service(), NativeUploader.defaultUploadUrl());
+            final UploadProgress progress = new UploadProgress(logger, "Uploading " + apkName, apkFilePath.length());
+            long start = System.nanoTime();
+            boolean success = retryPolicy.run(logger, uploadDescription, new RetryPolicy.Attempt() {
+                @Override
+                public boolean run() throws IOException, InterruptedException {
+                    try (UploadScheduler.Permit ignored = acquireUploadSlot(timings, apkName, environment, logger)) {
+                        return uploader.upload(logger, expand(environment, apiKey), expand(environment, buildSecret),
+                                appRelease, apkFilePath, buildUploadParameters(environment), renderedReleaseNotes,
+                                progress);
+                    }
+                }
+            });
+            timings.record(apkName, PublishTimingAction.PHASE_UPLOAD, start, apkFilePath.length());
+            if (success) {
+                timings.recordDuration(apkName, PublishTimingAction.PHASE_TRANSFER, progress.getElapsedMillis(),
+                        progress.getBytes());
             }
+            return success;
         }
 
-        List<String> command = buildCrashlyticsCommand(environment, manifestFile, apkFile, crashlyticsToolsFile, releaseNotes);
-        boolean success = runCommand(logger, command);
-        if (shouldDeleteApk) {
-            FileUtils.delete(logger, apkFile);
+        if (UploadScheduler.get().isBandwidthLimited()) {
+            logger.println("The bandwidth limit is not applied to " + apkName + ", since crashlytics-devtools.jar "
+                    + "uploads it. Upload without crashlytics-devtools.jar to apply it.");
         }
+        if (agentUpload != null) {
+            long start = System.nanoTime();
+            boolean success = retryPolicy.run(logger, uploadDescription, new RetryPolicy.Attempt() {
+                @Override
+                public boolean run() throws IOException, InterruptedException {
+                    try (UploadScheduler.Permit ignored = acquireUploadSlot(timings, apkName, environment, logger)) {
+                        return agentUpload.run(logger, buildAgentCrashlyticsCommand(environment, agentUpload,
+                                apkFilePath), TimeUnit.MINUTES.toMillis(uploadTimeoutMinutes));
+                    }
+                }
+            });
+            timings.record(apkName, PublishTimingAction.PHASE_UPLOAD, start, apkFilePath.length());
+            return success;
+        }
+
+        final File apkFile = preparedApk.stagedApkFile != null
+                ? preparedApk.stagedApkFile : new File(apkFilePath.toURI());
+        long start = System.nanoTime();
+        boolean success = retryPolicy.run(logger, uploadDescription, new RetryPolicy.Attempt() {
+            @Override
+            public boolean run() throws IOException, InterruptedException {
+                try (UploadScheduler.Permit ignored = acquireUploadSlot(timings, apkName, environment, logger)) {
+                    return runUpload(environment, logger, manifestFile, crashlyticsToolsFile,
+                            renderedReleaseNotes, apkFile);
+                }
+            }
+        });
+        timings.record(apkName, PublishTimingAction.PHASE_UPLOAD, start, apkFile.length());
         return success;
     }
 
+    private static <T> T await(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return true if crashlytics-devtools.jar is needed and has already failed to download, so that no APK can be
+     * uploaded and there is no point in preparing any more of them.
+     */
+    private boolean toolsFailed(Future<File> crashlyticsToolsFile) throws IOException, InterruptedException {
+        return !nativeUpload && crashlyticsToolsFile.isDone() && await(crashlyticsToolsFile) == null;
+    }
+
+    private UploadScheduler.Permit acquireUploadSlot(PublishTimingAction timings, String apkName,
+                                                     EnvVars environment, PrintStream logger)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        UploadScheduler.Permit permit = UploadScheduler.get().acquire(logger, expand(environment, apiKey));
+        timings.record(apkName, PublishTimingAction.PHASE_QUEUE, start);
+        return permit;
+    }
+
+    private boolean runUpload(EnvVars environment, PrintStream logger, File manifestFile, File crashlyticsToolsFile,
+                              File renderedReleaseNotes, File apkFile) throws IOException, InterruptedException {
+        if (reuseUploadJvm) {
+            List<String> arguments = buildCrashlyticsArguments(environment, manifestFile.getPath(), apkFile.getPath(),
+                    renderedReleaseNotes == null ? null : renderedReleaseNotes.getPath());
+            return UploadWorkerClient.run(logger, buildJavaCommand(), crashlyticsToolsFile, arguments,
+                    TimeUnit.MINUTES.toMillis(uploadTimeoutMinutes));
+        } else {
+            List<String> command = buildCrashlyticsCommand(environment, manifestFile, apkFile, crashlyticsToolsFile,
+                    renderedReleaseNotes);
+            return runCommand(logger, command, TimeUnit.MINUTES.toMillis(uploadTimeoutMinutes));
+        }
+    }
+
     private void saveBuildLinks(PrintStream logger, EnvVarsAction envVarsAction, int apkIndex, String buildUrl) {
         if (apkIndex == 0) {
             envVarsAction.add(logger, ENV_VAR_BUILD_URL, buildUrl);
@@ -179,21 +728,27 @@ public class FabricBetaPublisher extends Recorder implements SimpleBuildStep {
         envVarsAction.add(logger, ENV_VAR_BUILD_URL + "_" + apkIndex, buildUrl);
     }
 
-    private File prepareCrashlytics(PrintStream logger, File manifestFile) throws IOException, InterruptedException {
+    private File prepareCrashlytics(PrintStream logger) throws IOException, InterruptedException {
         try {
-
-            File crashlyticsZip = downloadCrashlyticsTools(logger);
-            return extractCrashlyticsJar(crashlyticsZip, logger);
+            return CrashlyticsToolsCache.get(logger);
         } catch (IOException e) {
             logger.println("Error downloading crashlytics-devtools.jar: " + e.getMessage());
-            FileUtils.delete(logger, manifestFile);
         }
         return null;
     }
 
-    private List<FilePath> getApkFilePaths(EnvVars environment, FilePath workspace) throws IOException, InterruptedException {
+    private List<FilePath> getApkFilePaths(EnvVars environment, FilePath workspace, PrintStream logger)
+            throws IOException, InterruptedException {
         if (useAntStyleInclude) {
-            return Arrays.asList(workspace.list(expand(environment, apkPath)));
+            ApkScanner.Result result = workspace.act(new ApkScanner(expand(environment, apkPath),
+                    expand(environment, apkExcludes), followSymlinks, maxScanDepth));
+            logger.println("Scanned " + result.getVisited() + " workspace entries in " + result.getElapsedMillis()
+                    + " ms, found " + result.getPaths().size() + " APK files");
+            List<FilePath> filePaths = new ArrayList<>();
+            for (String path : result.getPaths()) {
+                filePaths.add(workspace.child(path));
+            }
+            return filePaths;
         } else {
             List<FilePath> filePaths = new ArrayList<>();
             for (String oneApkPath : apkPath.split(",")) {
@@ -203,33 +758,42 @@ public class FabricBetaPublisher extends Recorder implements SimpleBuildStep {
         }
     }
 
-    private List<String> buildCrashlyticsCommand(EnvVars environment, File manifestFile, File apkFile, File toolsFile,
-                                                 String releaseNotes) {
+    List<String> buildCrashlyticsCommand(EnvVars environment, File manifestFile, File apkFile, File toolsFile,
+                                         File renderedReleaseNotes) {
+        List<String> command = buildJavaCommand();
+        command.add("-jar");
+        command.add(toolsFile.getPath());
+        command.addAll(buildCrashlyticsArguments(environment, manifestFile.getPath(), apkFile.getPath(),
+                renderedReleaseNotes == null ? null : renderedReleaseNotes.getPath()));
+        return command;
+    }
+
+    /**
+     * Same as {@link #buildCrashlyticsCommand}, with the paths of the files on the agent.
+     */
+    private List<String> buildAgentCrashlyticsCommand(EnvVars environment, AgentUpload agentUpload,
+                                                      FilePath apkFilePath) {
+        FilePath releaseNotes = agentUpload.getReleaseNotesFile();
         List<String> command = new ArrayList<>();
         command.add("java");
+        command.addAll(agentUpload.getProxyOptions());
+        command.add("-jar");
+        command.add(agentUpload.getToolsJar().getRemote());
+        command.addAll(buildCrashlyticsArguments(environment, agentUpload.getManifestFile().getRemote(),
+                apkFilePath.getRemote(), releaseNotes == null ? null : releaseNotes.getRemote()));
+        return command;
+    }
 
-        if (System.getProperty("http.nonProxyHosts") != null) {
-            command.add("-Dhttp.nonProxyHosts=\"" + System.getProperty("http.nonProxyHosts") + "\"");
-        }
-
-        if (System.getProperty("http.proxyHost") != null) {
-            command.add("-Dhttp.proxyHost=" + System.getProperty("http.proxyHost"));
-        }
-
-        if (System.getProperty("http.proxyPort") != null) {
-            command.add("-Dhttp.proxyPort=" + System.getProperty("http.proxyPort"));
-        }
-
-        if (System.getProperty("https.proxyHost") != null) {
-            command.add("-Dhttps.proxyHost=" + System.getProperty("https.proxyHost"));
-        }
-
-        if (System.getProperty("https.proxyPort") != null) {
-            command.add("-Dhttps.proxyPort=" + System.getProperty("https.proxyPort"));
-        }
+    private List<String> buildJavaCommand() {
+        List<String> command = new ArrayList<>();
+        command.add("java");
+        command.addAll(ProxyOptions.current());
+        return command;
+    }
 
-        command.add("-jar");
-        command.add(toolsFile.getPath());
+    private List<String> buildCrashlyticsArguments(EnvVars environment, String manifestPath, String uploadPath,
+                                                   String releaseNotesPath) {
+        List<String> command = new ArrayList<>();
         command.add("-androidRes");
         command.add(".");
         command.add("-apiKey");
@@ -237,9 +801,9 @@ public class FabricBetaPublisher extends Recorder implements SimpleBuildStep {
         command.add("-apiSecret");
         command.add(expand(environment, buildSecret));
         command.add("-androidManifest");
-        command.add(manifestFile.getPath());
+        command.add(manifestPath);
         command.add("-uploadDist");
-        command.add(apkFile.getPath());
+        command.add(uploadPath);
         command.add("-betaDistributionNotifications");
         command.add(String.valueOf(shouldSendNotifications()));
         if (NOTIFY_TESTERS_TYPE_EMAILS.equals(notifyTestersType) && !Strings.isNullOrEmpty(testersEmails)) {
@@ -250,13 +814,38 @@ public class FabricBetaPublisher extends Recorder implements SimpleBuildStep {
             command.add("-betaDistributionGroupAliases");
             command.add(expand(environment, testersGroup));
         }
-        if (!Strings.isNullOrEmpty(releaseNotes)) {
-            command.add("-betaDistributionReleaseNotes");
-            command.add(releaseNotes);
+        if (releaseNotesPath != null) {
+            command.add("-betaDistributionReleaseNotesFilePath");
+            command.add(releaseNotesPath);
         }
         return command;
     }
 
+    private Map<String, String> buildUploadParameters(EnvVars environment) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("distribution[notifications]", String.valueOf(shouldSendNotifications()));
+        if (NOTIFY_TESTERS_TYPE_EMAILS.equals(notifyTestersType) && !Strings.isNullOrEmpty(testersEmails)) {
+            parameters.put("distribution[emails]", expand(environment, testersEmails));
+        }
+        if (NOTIFY_TESTERS_GROUP.equals(notifyTestersType) && !Strings.isNullOrEmpty(testersGroup)) {
+            parameters.put("distribution[group_aliases]", expand(environment, testersGroup));
+        }
+        return parameters;
+    }
+
+    /**
+     * @return who gets notified about the release, so that publishing the same APK to other testers isn't skipped.
+     */
+    private String distributionTarget(EnvVars environment) {
+        if (NOTIFY_TESTERS_TYPE_EMAILS.equals(notifyTestersType)) {
+            return notifyTestersType + ":" + Strings.nullToEmpty(expand(environment, testersEmails));
+        }
+        if (NOTIFY_TESTERS_GROUP.equals(notifyTestersType)) {
+            return notifyTestersType + ":" + Strings.nullToEmpty(expand(environment, testersGroup));
+        }
+        return notifyTestersType;
+    }
+
     private String expand(EnvVars environment, String s) {
         return environment.expand(s);
     }
@@ -295,6 +884,66 @@ public class FabricBetaPublisher extends Recorder implements SimpleBuildStep {
         return useAntStyleInclude;
     }
 
+    @SuppressWarnings("unused")
+    public int getMaxParallelUploads() {
+        return maxParallelUploads;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isReuseUploadJvm() {
+        return reuseUploadJvm;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isNativeUpload() {
+        return nativeUpload;
+    }
+
+    @SuppressWarnings("unused")
+    public int getUploadAttempts() {
+        return uploadAttempts;
+    }
+
+    @SuppressWarnings("unused")
+    public int getRetryDelaySeconds() {
+        return retryDelaySeconds;
+    }
+
+    @SuppressWarnings("unused")
+    public int getUploadTimeoutMinutes() {
+        return uploadTimeoutMinutes;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isSkipDuplicateUploads() {
+        return skipDuplicateUploads;
+    }
+
+    @SuppressWarnings("unused")
+    public int getMaxReleaseNotesChanges() {
+        return maxReleaseNotesChanges;
+    }
+
+    @SuppressWarnings("unused")
+    public String getApkExcludes() {
+        return apkExcludes;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isFollowSymlinks() {
+        return followSymlinks;
+    }
+
+    @SuppressWarnings("unused")
+    public int getMaxScanDepth() {
+        return maxScanDepth;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean isUploadOnAgent() {
+        return uploadOnAgent;
+    }
+
     @SuppressWarnings("unused")
     public String getTestersGroup() {
         return testersGroup;
@@ -340,11 +989,84 @@ public class FabricBetaPublisher extends Recorder implements SimpleBuildStep {
         return releaseNotesFile;
     }
 
+    /**
+     * An APK that is ready to be uploaded.
+     */
+    private static final class PreparedApk {
+        private final FilePath apkFilePath;
+        private final AppRelease appRelease;
+        private final String ledgerKey;
+        private final String buildUrl;
+        private final File stagedApkFile;
+
+        PreparedApk(FilePath apkFilePath, AppRelease appRelease, String ledgerKey, String buildUrl,
+                    File stagedApkFile) {
+            this.apkFilePath = apkFilePath;
+            this.appRelease = appRelease;
+            this.ledgerKey = ledgerKey;
+            this.buildUrl = buildUrl;
+            this.stagedApkFile = stagedApkFile;
+        }
+    }
+
     @Extension
     @Symbol("fabric")
     public static final class DescriptorImpl extends BuildStepDescriptor<Publisher> {
+        private int maxConcurrentUploads;
+        private int maxUploadsPerApiKey;
+        private int bandwidthLimitKilobytes;
+
         public DescriptorImpl() {
             load();
+            applySchedulerLimits();
+        }
+
+        private void applySchedulerLimits() {
+            UploadScheduler.get().configure(maxConcurrentUploads, maxUploadsPerApiKey,
+                    bandwidthLimitKilobytes * 1024L);
+        }
+
+        public int getMaxConcurrentUploads() {
+            return maxConcurrentUploads;
+        }
+
+        public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+            this.maxConcurrentUploads = maxConcurrentUploads;
+        }
+
+        public int getMaxUploadsPerApiKey() {
+            return maxUploadsPerApiKey;
+        }
+
+        public void setMaxUploadsPerApiKey(int maxUploadsPerApiKey) {
+            this.maxUploadsPerApiKey = maxUploadsPerApiKey;
+        }
+
+        public int getBandwidthLimitKilobytes() {
+            return bandwidthLimitKilobytes;
+        }
+
+        public void setBandwidthLimitKilobytes(int bandwidthLimitKilobytes) {
+            this.bandwidthLimitKilobytes = bandwidthLimitKilobytes;
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckMaxConcurrentUploads(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckMaxUploadsPerApiKey(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckBandwidthLimitKilobytes(@QueryParameter String value) {
+            FormValidation validation = FormValidation.validateNonNegativeInteger(value);
+            if (validation.kind == FormValidation.Kind.OK && Integer.parseInt(value.trim()) > 0) {
+                return FormValidation.warning("Only jobs that upload without crashlytics-devtools.jar are limited");
+            }
+            return validation;
         }
 
         @SuppressWarnings("unused")
@@ -363,6 +1085,36 @@ public class FabricBetaPublisher extends Recorder implements SimpleBuildStep {
             return FormValidation.ok();
         }
 
+        @SuppressWarnings("unused")
+        public FormValidation doCheckMaxParallelUploads(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckUploadAttempts(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckRetryDelaySeconds(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckUploadTimeoutMinutes(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckMaxScanDepth(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckMaxReleaseNotesChanges(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
         @SuppressWarnings("unused")
         public FormValidation doCheckApkPath(@QueryParameter String value) {
             if (value.length() == 0) {
@@ -381,7 +1133,9 @@ public class FabricBetaPublisher extends Recorder implements SimpleBuildStep {
 
         @Override
         public boolean configure(StaplerRequest req, JSONObject formData) throws FormException {
+            req.bindJSON(this, formData);
             save();
+            applySchedulerLimits();
             return super.configure(req, formData);
         }
     }
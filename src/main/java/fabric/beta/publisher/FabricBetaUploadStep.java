@@ -0,0 +1,148 @@
+package fabric.beta.publisher;
+
+import com.google.common.collect.ImmutableSet;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pipeline step that uploads on a controller thread instead of blocking the step that started it:
+ * <pre>
+ * fabricBetaUpload publisher: fabric(apiKey: '...', buildSecret: '...', apkPath: 'app/build/outputs/apk/*.apk')
+ * </pre>
+ * Inside a {@code node} block the APKs are read from the workspace, so the {@code node} block keeps its executor
+ * until the upload is done, just like with the {@code fabric} step. Only outside of a {@code node} block, where the
+ * paths are resolved against the archived artifacts of the build, does the upload run without holding an executor.
+ * <p>
+ * The publisher, which holds the build secret, is never written to disk. An upload interrupted by a restart of
+ * Jenkins therefore fails the step instead of starting again, since it may already have reached the testers.
+ */
+public class FabricBetaUploadStep extends AbstractStepImpl {
+    private final FabricBetaPublisher publisher;
+
+    @DataBoundConstructor
+    public FabricBetaUploadStep(FabricBetaPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    @SuppressWarnings("unused")
+    public FabricBetaPublisher getPublisher() {
+        return publisher;
+    }
+
+    public static final class Execution extends AbstractStepExecutionImpl {
+        private static final long serialVersionUID = 1L;
+
+        @Inject
+        private transient FabricBetaUploadStep step;
+        private transient volatile Future<?> task;
+        /**
+         * Set by whichever of the upload and {@link #stop} finishes the step first, the other one is ignored.
+         */
+        private transient AtomicBoolean completed = new AtomicBoolean();
+
+        @Override
+        public boolean start() throws Exception {
+            final FabricBetaPublisher publisher = step.getPublisher();
+            final FilePath workspace = getContext().get(FilePath.class);
+            task = Computer.threadPoolForRemoting.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        upload(publisher, workspace == null ? archivedArtifacts() : workspace);
+                    } catch (Throwable e) {
+                        fail(e);
+                    }
+                }
+            });
+            return false;
+        }
+
+        @Override
+        public void onResume() {
+            super.onResume();
+            fail(new AbortException("Jenkins restarted during the Fabric Beta upload, "
+                    + "run the step again to upload (enable skipDuplicateUploads to skip APKs that were uploaded)"));
+        }
+
+        @Override
+        public void stop(Throwable cause) throws Exception {
+            Future<?> task = this.task;
+            if (task != null) {
+                task.cancel(true);
+            }
+            fail(cause);
+        }
+
+        private void fail(Throwable cause) {
+            if (completed().compareAndSet(false, true)) {
+                getContext().onFailure(cause);
+            }
+        }
+
+        /**
+         * Not restored from disk, so it is created again after a restart.
+         */
+        private synchronized AtomicBoolean completed() {
+            if (completed == null) {
+                completed = new AtomicBoolean();
+            }
+            return completed;
+        }
+
+        private FilePath archivedArtifacts() throws IOException, InterruptedException {
+            Run<?, ?> build = getContext().get(Run.class);
+            getContext().get(TaskListener.class).getLogger()
+                    .println("Not inside a node block, uploading from the archived artifacts");
+            return new FilePath(build.getArtifactsDir());
+        }
+
+        private void upload(FabricBetaPublisher publisher, FilePath uploadRoot) throws Exception {
+            Run<?, ?> build = getContext().get(Run.class);
+            EnvVars environment = getContext().get(EnvVars.class);
+            PrintStream logger = getContext().get(TaskListener.class).getLogger();
+            if (!publisher.publish(build, environment, uploadRoot, logger)) {
+                fail(new AbortException("Fabric Beta upload failed"));
+            } else if (completed().compareAndSet(false, true)) {
+                getContext().onSuccess(null);
+            }
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public Set<Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class, TaskListener.class, EnvVars.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "fabricBetaUpload";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Upload .apk to Fabric Beta without blocking";
+        }
+    }
+}
@@ -1,10 +1,36 @@
 package fabric.beta.publisher;
 
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
+import retrofit2.http.Multipart;
+import retrofit2.http.POST;
+import retrofit2.http.Part;
+import retrofit2.http.PartMap;
+import retrofit2.http.Tag;
+import retrofit2.http.Url;
 
+import java.io.PrintStream;
+import java.util.Map;
+
+/**
+ * The {@link PrintStream} of each call is the build log that {@link FabricApi} logs the request into.
+ */
 interface FabricService {
     @GET("android/ant/crashlytics.zip")
-    Call<ResponseBody> crashlyticsTools();
+    Call<ResponseBody> crashlyticsTools(@Tag PrintStream logger,
+                                        @Header("If-None-Match") String etag,
+                                        @Header("If-Modified-Since") String lastModified);
+
+    @Multipart
+    @POST
+    Call<ResponseBody> uploadDistribution(@Tag PrintStream logger,
+                                          @Url String url,
+                                          @Header("X-CRASHLYTICS-API-KEY") String apiKey,
+                                          @Header("X-CRASHLYTICS-BUILD-SECRET") String buildSecret,
+                                          @PartMap Map<String, RequestBody> parameters,
+                                          @Part MultipartBody.Part distribution);
 }
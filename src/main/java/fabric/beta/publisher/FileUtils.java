@@ -1,101 +1,113 @@
 package fabric.beta.publisher;
 
+import hudson.FilePath;
+import hudson.remoting.Channel;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
 import okhttp3.ResponseBody;
-import org.springframework.util.FileCopyUtils;
-import retrofit2.Response;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 class FileUtils {
-    static File getManifestFile() throws IOException, InterruptedException {
-        File manifestFile = File.createTempFile("xml", null);
+    private static final int TRANSFER_BUFFER_SIZE = 1024 * 1024;
+
+    static File getManifestFile(TempWorkspace tempWorkspace) throws IOException, InterruptedException {
+        File manifestFile = tempWorkspace.newFile("xml", null, 0);
         Files.write(manifestFile.toPath(),
                 "<?xml version=\"1.0\" encoding=\"utf-8\"?><manifest></manifest>".getBytes("UTF-8"));
         return manifestFile;
     }
 
-    static File createTemporaryUploadFile(InputStream inputStream) throws IOException {
-        File file = File.createTempFile("app-build-tmp", "apk");
-        FileOutputStream outputStream = new FileOutputStream(file);
-        FileCopyUtils.copy(inputStream, outputStream);
-        outputStream.close();
-        return file;
-    }
-
-    static File downloadCrashlyticsTools(PrintStream logger) throws IOException, InterruptedException {
-        File crashlyticsZip = File.createTempFile("crashlytics", ".zip");
-        Response<ResponseBody> response = FabricApi.service(logger).crashlyticsTools().execute();
-        writeResponseBodyToDisk(crashlyticsZip, response.body());
-        return crashlyticsZip;
+    /**
+     * Copies a file from an agent into a local temporary file. The agent pushes large chunks through a pipelined
+     * {@link RemoteOutputStream} while hashing them, and the hash of what has been written locally must match.
+     * Progress of long copies is logged through {@link UploadProgress}.
+     */
+    static File createTemporaryUploadFile(PrintStream logger, TempWorkspace tempWorkspace, FilePath filePath)
+            throws IOException, InterruptedException {
+        return createTemporaryUploadFile(logger, tempWorkspace, filePath, new SendFileCallable());
     }
 
-    static File extractCrashlyticsJar(File crashlyticsZip, PrintStream logger) throws IOException {
-        File crashlyticsJar = createTempDirectory();
-        unzip(crashlyticsZip.getAbsolutePath(), crashlyticsJar);
-        File crashlyticsZipFile = new File(crashlyticsJar, "crashlytics-devtools.jar");
-
-        delete(logger, crashlyticsZip);
-        return crashlyticsZipFile;
-    }
-
-    static void delete(PrintStream logger, File... files) {
-        for (File file : files) {
-            logger.println("Temporary " + file.getName() + " got deleted = " + file.delete());
+    /**
+     * @param sender pushes the file from the agent, tests pass one that tampers with the transfer.
+     */
+    static File createTemporaryUploadFile(PrintStream logger, TempWorkspace tempWorkspace, FilePath filePath,
+                                          SendFileCallable sender) throws IOException, InterruptedException {
+        File file = tempWorkspace.newFile("app-build-tmp", "apk", filePath.length());
+        long start = System.nanoTime();
+        MessageDigest digest = sha256Digest();
+        UploadProgress progress =
+                new UploadProgress(logger, "Copying " + filePath.getName() + " from agent", filePath.length());
+        String sourceSha256;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+             OutputStream outputStream = new ProgressOutputStream(
+                     new DigestOutputStream(Channels.newOutputStream(channel), digest), progress)) {
+            sourceSha256 = filePath.act(sender.to(new RemoteOutputStream(outputStream)));
+            VirtualChannel remote = filePath.getChannel();
+            if (remote instanceof Channel) {
+                // writes through RemoteOutputStream are asynchronous, wait until all of them have been applied
+                ((Channel) remote).syncLocalIO();
+            }
+        } catch (IOException | InterruptedException e) {
+            tempWorkspace.delete(logger, file);
+            throw e;
+        }
+        if (!sourceSha256.equals(toHex(digest.digest()))) {
+            tempWorkspace.delete(logger, file);
+            throw new IOException("Checksum mismatch while copying " + filePath.getRemote());
         }
+        long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        logger.println(String.format(Locale.US, "Copied %s (%d bytes) from agent in %d ms, %.2f MB/s",
+                filePath.getName(), file.length(), elapsedMs, file.length() / 1048576.0 / (elapsedMs / 1000.0)));
+        return file;
     }
 
-    static void unzip(String zipFilePath, File destDir) throws IOException {
-        FileInputStream fis = null;
-        ZipInputStream zis = null;
-        try {
-            byte[] buffer = new byte[1024];
-            fis = new FileInputStream(zipFilePath);
-            zis = new ZipInputStream(fis);
-            ZipEntry ze = zis.getNextEntry();
-            while (ze != null) {
-                String fileName = ze.getName();
-                File newFile = new File(destDir, fileName);
-                File parentFile = new File(newFile.getParent());
-                boolean folderCreated = parentFile.mkdirs();
-                try (FileOutputStream fos = new FileOutputStream(newFile)) {
-                    int len;
-                    while ((len = zis.read(buffer)) > 0) {
-                        fos.write(buffer, 0, len);
-                    }
-                }
-                zis.closeEntry();
-                ze = zis.getNextEntry();
-            }
-
-        } finally {
-            if (zis != null) {
-                zis.closeEntry();
-                zis.close();
-            }
-            if (fis != null) {
-                fis.close();
+    static String sha256(File file) throws IOException {
+        MessageDigest digest = sha256Digest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
             }
         }
+        return toHex(digest.digest());
     }
 
-    static File createTempDirectory() throws IOException {
-        File temp = File.createTempFile("temp", Long.toString(System.nanoTime()));
+    /**
+     * Hashes the file on the node that holds it.
+     */
+    static String sha256(FilePath filePath) throws IOException, InterruptedException {
+        return filePath.act(new Sha256Callable());
+    }
 
-        if (!temp.delete()) {
-            throw new IOException("Could not delete temp file: " + temp.getAbsolutePath());
+    private static MessageDigest sha256Digest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
         }
+    }
 
-        if (!temp.mkdir()) {
-            throw new IOException("Could not create temp directory: " + temp.getAbsolutePath());
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
         }
-
-        return temp;
+        return sb.toString();
     }
 
-    private static void writeResponseBodyToDisk(File target, ResponseBody body) throws IOException, InterruptedException {
+    static void writeResponseBodyToDisk(File target, ResponseBody body) throws IOException {
         byte[] fileReader = new byte[4096];
 
         InputStream inputStream = body.byteStream();
@@ -111,4 +123,66 @@ class FileUtils {
             outputStream.flush();
         }
     }
+
+    private static final class ProgressOutputStream extends FilterOutputStream {
+        private final UploadProgress progress;
+
+        ProgressOutputStream(OutputStream out, UploadProgress progress) {
+            super(out);
+            this.progress = progress;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            progress.add(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            progress.add(len);
+        }
+    }
+
+    private static final class Sha256Callable extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String invoke(File file, VirtualChannel channel) throws IOException {
+            return sha256(file);
+        }
+    }
+
+    static class SendFileCallable extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+        private OutputStream outputStream;
+
+        SendFileCallable to(OutputStream outputStream) {
+            this.outputStream = outputStream;
+            return this;
+        }
+
+        /**
+         * @return SHA-256 of the bytes that have been sent.
+         */
+        @Override
+        public String invoke(File file, VirtualChannel channel) throws IOException {
+            MessageDigest digest = sha256Digest();
+            byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+            try (InputStream inputStream = new FileInputStream(file);
+                 OutputStream out = outputStream) {
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    send(out, buffer, read);
+                }
+            }
+            return toHex(digest.digest());
+        }
+
+        void send(OutputStream out, byte[] buffer, int length) throws IOException {
+            out.write(buffer, 0, length);
+        }
+    }
 }
\ No newline at end of file
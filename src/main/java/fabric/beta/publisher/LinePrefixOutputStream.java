@@ -0,0 +1,60 @@
+package fabric.beta.publisher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Writes whole lines into a shared log, each starting with a prefix, so that concurrent uploads can log into the
+ * same build log as they go without mixing up their lines. Only the current line is held back, and no more than
+ * {@link #MAX_LINE_BYTES} of it.
+ */
+class LinePrefixOutputStream extends OutputStream {
+    static final int MAX_LINE_BYTES = 8 * 1024;
+
+    private final PrintStream log;
+    private final byte[] prefix;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    LinePrefixOutputStream(PrintStream log, String prefix) throws UnsupportedEncodingException {
+        this.log = log;
+        this.prefix = prefix.getBytes("UTF-8");
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        line.write(b);
+        if (b == '\n' || line.size() >= MAX_LINE_BYTES) {
+            writeLine();
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            write(b[i]);
+        }
+    }
+
+    /**
+     * Writes what is left of the last line.
+     */
+    @Override
+    public synchronized void close() {
+        if (line.size() > 0) {
+            line.write('\n');
+            writeLine();
+        }
+    }
+
+    private void writeLine() {
+        // PrintStream locks itself for each write, holding that lock keeps the prefix and the line together
+        synchronized (log) {
+            log.write(prefix, 0, prefix.length);
+            log.write(line.toByteArray(), 0, line.size());
+            log.flush();
+        }
+        line.reset();
+    }
+}
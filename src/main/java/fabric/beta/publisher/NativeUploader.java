@@ -0,0 +1,150 @@
+package fabric.beta.publisher;
+
+import hudson.FilePath;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+import retrofit2.Response;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Uploads an APK through {@link FabricService} instead of crashlytics-devtools.jar. The APK is streamed straight
+ * from the node that holds it, so it is never staged on the controller.
+ */
+class NativeUploader {
+    private static final String DEFAULT_UPLOAD_URL =
+            "https://api.crashlytics.com/spi/v1/platforms/android/apps/%s/distributions";
+    private static final MediaType APK_MEDIA_TYPE = MediaType.parse("application/vnd.android.package-archive");
+    private static final MediaType TEXT_MEDIA_TYPE = MediaType.parse("text/plain; charset=utf-8");
+
+    private final FabricService service;
+    private final String uploadUrl;
+
+    /**
+     * @return format string for the upload URL, which can be pointed elsewhere with a system property.
+     */
+    static String defaultUploadUrl() {
+        return System.getProperty(NativeUploader.class.getName() + ".url", DEFAULT_UPLOAD_URL);
+    }
+
+    /**
+     * @param uploadUrl format string that receives the package name.
+     */
+    NativeUploader(FabricService service, String uploadUrl) {
+        this.service = service;
+        this.uploadUrl = uploadUrl;
+    }
+
+    /**
+     * @param parameters distribution fields, the same ones crashlytics-devtools.jar receives on its command line.
+     * @param releaseNotes file with the release notes, null if there are none.
+     * @param progress receives the bytes of the APK as they are sent.
+     * @return true if the APK has been accepted.
+     * @throws IOException on network errors and responses that are worth retrying.
+     */
+    boolean upload(PrintStream logger, String apiKey, String buildSecret, AppRelease appRelease,
+                   FilePath apkFilePath, Map<String, String> parameters, File releaseNotes,
+                   UploadProgress progress) throws IOException, InterruptedException {
+        Map<String, RequestBody> parts = new LinkedHashMap<>();
+        parts.put("app[build_id]", text(appRelease.getInstanceId()));
+        parts.put("app[display_version]", text(appRelease.getDisplayVersion()));
+        parts.put("app[build_version]", text(appRelease.getBuildVersion()));
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            parts.put(parameter.getKey(), text(parameter.getValue()));
+        }
+        if (releaseNotes != null) {
+            parts.put("distribution[release_notes]", RequestBody.create(TEXT_MEDIA_TYPE, releaseNotes));
+        }
+        MultipartBody.Part distribution = MultipartBody.Part.createFormData("distribution[file]",
+                apkFilePath.getName(), new FilePathRequestBody(apkFilePath, apkFilePath.length(), progress));
+
+        String url = String.format(Locale.US, uploadUrl, appRelease.getPackageName());
+        logger.println("Uploading " + apkFilePath.getRemote() + " to " + url);
+        Response<ResponseBody> response = service
+                .uploadDistribution(logger, url, apiKey, buildSecret, parts, distribution)
+                .execute();
+        try (ResponseBody body = response.isSuccessful() ? response.body() : response.errorBody()) {
+            if (isRetryable(response.code())) {
+                throw new IOException("Upload failed with " + response.code());
+            }
+            if (!response.isSuccessful()) {
+                logger.println("Upload failed with " + response.code() + ": " + (body == null ? "" : body.string()));
+                return false;
+            }
+        }
+        logger.println("Upload finished");
+        return true;
+    }
+
+    private static boolean isRetryable(int code) {
+        return code == 408 || code == 429 || code >= 500;
+    }
+
+    private static RequestBody text(String value) {
+        return RequestBody.create(TEXT_MEDIA_TYPE, value == null ? "" : value);
+    }
+
+    /**
+     * Streams a possibly remote file into the request, so the body is never buffered in memory. Every chunk goes
+     * through the bandwidth limit of {@link UploadScheduler} and is then counted by the {@link UploadProgress}.
+     */
+    private static final class FilePathRequestBody extends RequestBody {
+        private static final long CHUNK_SIZE = 64 * 1024;
+        private final FilePath filePath;
+        private final long length;
+        private final UploadProgress progress;
+
+        FilePathRequestBody(FilePath filePath, long length, UploadProgress progress) {
+            this.filePath = filePath;
+            this.length = length;
+            this.progress = progress;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return APK_MEDIA_TYPE;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            InputStream inputStream;
+            try {
+                inputStream = filePath.read();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while opening " + filePath.getRemote());
+            }
+            UploadScheduler scheduler = UploadScheduler.get();
+            progress.start(System.nanoTime());
+            try (Source source = Okio.source(inputStream)) {
+                long read;
+                while ((read = source.read(sink.buffer(), CHUNK_SIZE)) != -1) {
+                    try {
+                        scheduler.throttle(read);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Interrupted while uploading " + filePath.getRemote());
+                    }
+                    sink.emitCompleteSegments();
+                    progress.add(read);
+                }
+            }
+            progress.finish();
+        }
+    }
+}
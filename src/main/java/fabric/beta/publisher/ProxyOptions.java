@@ -0,0 +1,46 @@
+package fabric.beta.publisher;
+
+import jenkins.security.MasterToSlaveCallable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Proxy settings of a JVM as options for the java command of crashlytics-devtools.jar. Called through the channel of
+ * an agent, it returns the agent's own settings, so that the controller's proxy is not forced onto it.
+ */
+final class ProxyOptions extends MasterToSlaveCallable<ArrayList<String>, RuntimeException> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @return options taken from the system properties of the JVM this runs in.
+     */
+    static ArrayList<String> current() {
+        ArrayList<String> options = new ArrayList<>();
+        if (System.getProperty("http.nonProxyHosts") != null) {
+            options.add("-Dhttp.nonProxyHosts=\"" + System.getProperty("http.nonProxyHosts") + "\"");
+        }
+
+        if (System.getProperty("http.proxyHost") != null) {
+            options.add("-Dhttp.proxyHost=" + System.getProperty("http.proxyHost"));
+        }
+
+        if (System.getProperty("http.proxyPort") != null) {
+            options.add("-Dhttp.proxyPort=" + System.getProperty("http.proxyPort"));
+        }
+
+        if (System.getProperty("https.proxyHost") != null) {
+            options.add("-Dhttps.proxyHost=" + System.getProperty("https.proxyHost"));
+        }
+
+        if (System.getProperty("https.proxyPort") != null) {
+            options.add("-Dhttps.proxyPort=" + System.getProperty("https.proxyPort"));
+        }
+        return options;
+    }
+
+    @Override
+    public ArrayList<String> call() {
+        return current();
+    }
+}
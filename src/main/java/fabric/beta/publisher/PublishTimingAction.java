@@ -0,0 +1,237 @@
+package fabric.beta.publisher;
+
+import hudson.model.Api;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations and byte counts of the publishing phases, shown on the build page and exported through the remote API
+ * along with the state of the shared HTTP connection pool at the end of the last publish.
+ */
+@ExportedBean
+public class PublishTimingAction implements RunAction2 {
+    static final String PHASE_TOOLS = "tools";
+    static final String PHASE_RELEASE_NOTES = "releaseNotes";
+    static final String PHASE_DISCOVERY = "discovery";
+    static final String PHASE_HASH = "hash";
+    static final String PHASE_METADATA = "metadata";
+    static final String PHASE_STAGING = "staging";
+    static final String PHASE_QUEUE = "queue";
+    static final String PHASE_UPLOAD = "upload";
+    /**
+     * Streaming of the APK alone, without queueing, retries and waiting for the response.
+     */
+    static final String PHASE_TRANSFER = "transfer";
+
+    private final List<Phase> phases = new ArrayList<>();
+    private long startTimeMillis;
+    private long totalMillis;
+    private ConnectionStatistics connections;
+    private transient Run<?, ?> run;
+
+    /**
+     * Records how long a whole publish took. Phases overlap, so this is not the sum of their durations.
+     *
+     * @param startTimeMillis {@link System#currentTimeMillis()} when the publish started.
+     * @param startNanos {@link System#nanoTime()} when the publish started.
+     */
+    synchronized void recordPublish(long startTimeMillis, long startNanos) {
+        if (this.startTimeMillis == 0) {
+            this.startTimeMillis = startTimeMillis;
+        }
+        totalMillis += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param apk name of the APK the phase belongs to, null for phases of the whole publish step.
+     * @param startNanos {@link System#nanoTime()} when the phase started.
+     * @param bytes how much data the phase processed, -1 if not applicable.
+     */
+    void record(String apk, String name, long startNanos, long bytes) {
+        recordDuration(apk, name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), bytes);
+    }
+
+    synchronized void recordDuration(String apk, String name, long durationMillis, long bytes) {
+        phases.add(new Phase(apk, name, durationMillis, bytes));
+    }
+
+    void record(String apk, String name, long startNanos) {
+        record(apk, name, startNanos, -1);
+    }
+
+    synchronized void recordConnections(ConnectionStatistics connections) {
+        this.connections = connections;
+    }
+
+    @Exported
+    public synchronized List<Phase> getPhases() {
+        return new ArrayList<>(phases);
+    }
+
+    /**
+     * @return when the first publish of the build started, 0 if none has finished.
+     */
+    @Exported
+    public synchronized long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    /**
+     * @return wall-clock time of all publishes of the build.
+     */
+    @Exported
+    public synchronized long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * @return null if no publish has finished.
+     */
+    @Exported
+    public synchronized ConnectionStatistics getConnections() {
+        return connections;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+    public String getDisplayName() {
+        return "Fabric Beta Publisher Timings";
+    }
+
+    public String getUrlName() {
+        return "fabricBetaTimings";
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Phase {
+        private final String apk;
+        private final String name;
+        private final long durationMillis;
+        private final long bytes;
+
+        Phase(String apk, String name, long durationMillis, long bytes) {
+            this.apk = apk;
+            this.name = name;
+            this.durationMillis = durationMillis;
+            this.bytes = bytes;
+        }
+
+        @Exported
+        public String getApk() {
+            return apk;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Exported
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return -1 if the phase has no byte count.
+         */
+        @Exported
+        public long getBytesPerSecond() {
+            if (bytes < 0) {
+                return -1;
+            }
+            return bytes * 1000 / Math.max(1, durationMillis);
+        }
+    }
+
+    /**
+     * Snapshot of the HTTP client that all builds share, so the counts are those of the whole Jenkins instance.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class ConnectionStatistics {
+        private final int openConnections;
+        private final int idleConnections;
+        private final int runningCalls;
+        private final long requests;
+        private final long reusedRequests;
+
+        ConnectionStatistics(int openConnections, int idleConnections, int runningCalls, long requests,
+                             long reusedRequests) {
+            this.openConnections = openConnections;
+            this.idleConnections = idleConnections;
+            this.runningCalls = runningCalls;
+            this.requests = requests;
+            this.reusedRequests = reusedRequests;
+        }
+
+        @Exported
+        public int getOpenConnections() {
+            return openConnections;
+        }
+
+        @Exported
+        public int getIdleConnections() {
+            return idleConnections;
+        }
+
+        @Exported
+        public int getRunningCalls() {
+            return runningCalls;
+        }
+
+        /**
+         * @return requests since Jenkins has started.
+         */
+        @Exported
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return requests that have reused a pooled connection instead of opening one.
+         */
+        @Exported
+        public long getReusedRequests() {
+            return reusedRequests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "HTTP connections: %d open, %d idle, %d running calls, %.0f%% of %d requests reused a connection",
+                    openConnections, idleConnections, runningCalls,
+                    requests == 0 ? 0.0 : 100.0 * reusedRequests / requests, requests);
+        }
+    }
+}
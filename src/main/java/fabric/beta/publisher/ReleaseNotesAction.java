@@ -0,0 +1,99 @@
+package fabric.beta.publisher;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+import hudson.scm.ChangeLogSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes of a single build as they went into its release notes, and whether that build has published to Fabric.
+ * Aggregating release notes over several builds reads these instead of each build's changelog, and stops at the
+ * last build that has published.
+ */
+class ReleaseNotesAction extends InvisibleAction {
+    /**
+     * Keeps a job that has never published from walking its entire history.
+     */
+    private static final int MAX_BUILDS = 100;
+
+    private final List<Change> changes;
+    private boolean published;
+
+    ReleaseNotesAction(List<Change> changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * @return the action of the build, created from its changelog if the build doesn't have one yet.
+     */
+    static ReleaseNotesAction of(Run<?, ?> build, ChangeLogSet<? extends ChangeLogSet.Entry> changeLogSet) {
+        ReleaseNotesAction action = build.getAction(ReleaseNotesAction.class);
+        if (action == null) {
+            action = new ReleaseNotesAction(changesOf(changeLogSet));
+            build.addAction(action);
+        }
+        return action;
+    }
+
+    /**
+     * @return change messages of the build and of every earlier build since the last published one, newest first,
+     * without duplicate commits.
+     */
+    static List<String> changesSinceLastPublish(Run<?, ?> build, int maxChanges) {
+        Map<String, String> messages = new LinkedHashMap<>();
+        Run<?, ?> run = build;
+        for (int builds = 0; run != null && builds < MAX_BUILDS; builds++) {
+            ReleaseNotesAction action = run.getAction(ReleaseNotesAction.class);
+            if (run != build && action != null && action.published) {
+                break;
+            }
+            List<Change> runChanges = action != null
+                    ? action.changes : changesOf(ChangelogReader.getChangeLogSet(run));
+            for (Change change : runChanges) {
+                if (messages.size() >= maxChanges) {
+                    return new ArrayList<>(messages.values());
+                }
+                String key = change.commitId != null ? change.commitId : change.msg;
+                if (!messages.containsKey(key)) {
+                    messages.put(key, change.msg);
+                }
+            }
+            run = run.getPreviousBuild();
+        }
+        return new ArrayList<>(messages.values());
+    }
+
+    void markPublished() {
+        published = true;
+    }
+
+    boolean isPublished() {
+        return published;
+    }
+
+    private static List<Change> changesOf(ChangeLogSet<? extends ChangeLogSet.Entry> changeLogSet) {
+        if (changeLogSet.isEmptySet()) {
+            return Collections.emptyList();
+        }
+        List<Change> changes = new ArrayList<>();
+        for (ChangeLogSet.Entry entry : changeLogSet) {
+            changes.add(new Change(entry.getCommitId(), entry.getMsg()));
+        }
+        return changes;
+    }
+
+    static final class Change {
+        private final String commitId;
+        private final String msg;
+
+        Change(String commitId, String msg) {
+            this.commitId = commitId;
+            this.msg = msg;
+        }
+    }
+}
@@ -2,40 +2,187 @@ package fabric.beta.publisher;
 
 import hudson.EnvVars;
 import hudson.FilePath;
+import hudson.model.Run;
 import hudson.scm.ChangeLogSet;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+import java.util.List;
 
 import static fabric.beta.publisher.FabricBetaPublisher.*;
 
 class ReleaseNotesFormatter {
-    static String getReleaseNotes(ChangeLogSet<? extends ChangeLogSet.Entry> changeLogSet, String releaseNotesType,
-                                  String releaseNotesParameter, String releaseNotesFile, EnvVars environment,
-                                  FilePath workspace)
-            throws IOException, InterruptedException {
-        switch (releaseNotesType) {
-            case RELEASE_NOTES_TYPE_NONE:
-                return null;
-            case RELEASE_NOTES_TYPE_PARAMETER:
-                return environment.get(releaseNotesParameter, "");
-            case RELEASE_NOTES_TYPE_CHANGELOG:
-                StringBuilder sb = new StringBuilder();
-                if (!changeLogSet.isEmptySet()) {
-                    boolean hasManyChangeSets = changeLogSet.getItems().length > 1;
-                    for (ChangeLogSet.Entry entry : changeLogSet) {
-                        sb.append("\n");
-                        if (hasManyChangeSets) {
-                            sb.append("* ");
+    /**
+     * Upper bound for the UTF-8 encoded release notes, anything above it is cut off at a character boundary.
+     */
+    static final int MAX_BYTES = Integer.getInteger(ReleaseNotesFormatter.class.getName() + ".maxBytes", 16 * 1024);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Renders the release notes into {@code target} without building them up in memory.
+     *
+     * @return false if there are no release notes, in which case {@code target} should not be passed on.
+     */
+    static boolean writeReleaseNotes(Run<?, ?> build, ChangeLogSet<? extends ChangeLogSet.Entry> changeLogSet,
+                                     String releaseNotesType, String releaseNotesParameter, String releaseNotesFile,
+                                     int maxChanges, EnvVars environment, FilePath workspace, File target,
+                                     PrintStream logger) throws IOException, InterruptedException {
+        BoundedWriter writer = new BoundedWriter(new FileOutputStream(target), MAX_BYTES);
+        try {
+            switch (releaseNotesType) {
+                case RELEASE_NOTES_TYPE_PARAMETER:
+                    writer.write(environment.get(releaseNotesParameter, ""));
+                    break;
+                case RELEASE_NOTES_TYPE_CHANGELOG:
+                    if (!changeLogSet.isEmptySet()) {
+                        Iterator<? extends ChangeLogSet.Entry> entries = changeLogSet.iterator();
+                        ChangeLogSet.Entry entry = entries.next();
+                        boolean hasManyChangeSets = entries.hasNext();
+                        writeChange(writer, entry.getMsg(), hasManyChangeSets);
+                        while (entries.hasNext()) {
+                            writeChange(writer, entries.next().getMsg(), hasManyChangeSets);
                         }
-                        sb.append(entry.getMsg());
                     }
+                    break;
+                case RELEASE_NOTES_TYPE_CHANGELOG_SINCE_LAST_PUBLISH:
+                    List<String> messages = ReleaseNotesAction.changesSinceLastPublish(build, maxChanges);
+                    for (String message : messages) {
+                        writeChange(writer, message, messages.size() > 1);
+                    }
+                    break;
+                case RELEASE_NOTES_TYPE_FILE:
+                    FilePath releaseNotesFilePath = new FilePath(workspace, environment.expand(releaseNotesFile));
+                    copy(releaseNotesFilePath, writer);
+                    break;
+                default:
+                    break;
+            }
+        } finally {
+            writer.close();
+        }
+        if (writer.isTruncated()) {
+            logger.println("Release notes exceed " + MAX_BYTES + " bytes and have been truncated");
+        }
+        return writer.getBytesWritten() > 0;
+    }
+
+    private static void writeChange(BoundedWriter writer, String message, boolean hasManyChangeSets)
+            throws IOException {
+        writer.write("\n");
+        if (hasManyChangeSets) {
+            writer.write("* ");
+        }
+        writer.write(message);
+    }
+
+    private static void copy(FilePath source, BoundedWriter writer) throws IOException, InterruptedException {
+        try (Reader reader = new InputStreamReader(source.read(), UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE))) {
+            char[] buffer = new char[8192];
+            int read;
+            while (!writer.isTruncated() && (read = reader.read(buffer)) != -1) {
+                writer.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * UTF-8 writer that silently drops everything past a byte limit, never splitting a character. A high surrogate
+     * at the end of a write is held back until the next one, which decides whether the pair fits.
+     */
+    static final class BoundedWriter extends Writer {
+        private final Writer out;
+        private final int maxBytes;
+        private int bytesWritten;
+        private boolean truncated;
+        private char pendingHighSurrogate;
+
+        BoundedWriter(OutputStream out, int maxBytes) {
+            this.out = new OutputStreamWriter(out, UTF_8);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            if (pendingHighSurrogate != 0) {
+                char[] joined = new char[length + 1];
+                joined[0] = pendingHighSurrogate;
+                System.arraycopy(chars, offset, joined, 1, length);
+                pendingHighSurrogate = 0;
+                chars = joined;
+                offset = 0;
+                length = joined.length;
+            }
+            int end = offset + length;
+            int i = offset;
+            while (i < end && !truncated) {
+                char c = chars[i];
+                int charCount = 1;
+                int size;
+                if (c < 0x80) {
+                    size = 1;
+                } else if (c < 0x800) {
+                    size = 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 == end) {
+                    pendingHighSurrogate = c;
+                    break;
+                } else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(chars[i + 1])) {
+                    size = 4;
+                    charCount = 2;
+                } else {
+                    size = 3;
+                }
+                if (bytesWritten + size > maxBytes) {
+                    truncated = true;
+                    break;
+                }
+                bytesWritten += size;
+                i += charCount;
+            }
+            out.write(chars, offset, i - offset);
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+
+        int getBytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (pendingHighSurrogate != 0) {
+                // a lone high surrogate, which the encoder replaces with a single byte
+                char[] last = {pendingHighSurrogate};
+                pendingHighSurrogate = 0;
+                if (!truncated && bytesWritten + 1 <= maxBytes) {
+                    bytesWritten += 1;
+                    out.write(last);
+                } else {
+                    truncated = true;
                 }
-                return sb.toString();
-            case RELEASE_NOTES_TYPE_FILE:
-                FilePath releaseNotesFilePath = new FilePath(workspace, environment.expand(releaseNotesFile));
-                return releaseNotesFilePath.readToString();
-            default:
-                return null;
+            }
+            out.close();
         }
     }
 }
@@ -0,0 +1,75 @@
+package fabric.beta.publisher;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repeats an upload that failed with an {@link IOException} with exponential backoff. An attempt that returns false
+ * has been rejected for good, e.g. because of a wrong API key, and is not repeated. Each delay is randomized
+ * between half and all of its nominal value, so builds that failed together don't retry together. Once all attempts
+ * have failed the upload counts as failed like a rejected one, so the other APKs of the build still get their turn.
+ */
+class RetryPolicy {
+    private static final long MAX_DELAY_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final Random RANDOM = new Random();
+
+    private final int maxAttempts;
+    private final long initialDelayMs;
+
+    interface Attempt {
+        /**
+         * @return true if the attempt has succeeded, false if it has failed in a way that retrying won't fix.
+         * @throws IOException if the attempt has failed in a way that is worth retrying.
+         */
+        boolean run() throws IOException, InterruptedException;
+    }
+
+    RetryPolicy(int maxAttempts, long initialDelayMs) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialDelayMs = Math.max(0, initialDelayMs);
+    }
+
+    /**
+     * @return true if an attempt has succeeded, false if one has been rejected or all of them have failed.
+     */
+    boolean run(PrintStream logger, String description, Attempt attempt) throws InterruptedException {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            long start = System.nanoTime();
+            try {
+                boolean success = attempt.run();
+                logger.println(String.format("%s attempt %d/%d %s after %d ms", description, attemptNumber,
+                        maxAttempts, success ? "succeeded" : "failed, not retrying", elapsedMs(start)));
+                return success;
+            } catch (IOException e) {
+                logger.println(String.format("%s attempt %d/%d failed after %d ms: %s", description, attemptNumber,
+                        maxAttempts, elapsedMs(start), e));
+                if (attemptNumber >= maxAttempts) {
+                    logger.println(description + " failed, giving up after " + maxAttempts + " attempts");
+                    return false;
+                }
+            }
+            long delayMs = delayMs(attemptNumber);
+            logger.println("Retrying in " + delayMs + " ms");
+            Thread.sleep(delayMs);
+        }
+    }
+
+    /**
+     * @return the randomized delay after the given failed attempt.
+     */
+    long delayMs(int failedAttempts) {
+        long delay = initialDelayMs;
+        for (int i = 1; i < failedAttempts && delay < MAX_DELAY_MS; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, MAX_DELAY_MS);
+        long half = delay / 2;
+        return half + (long) (RANDOM.nextDouble() * (delay - half));
+    }
+
+    private static long elapsedMs(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
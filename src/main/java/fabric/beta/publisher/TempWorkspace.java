@@ -0,0 +1,168 @@
+package fabric.beta.publisher;
+
+import hudson.Util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Owns every temporary file and directory of a single publish and deletes all of them when closed, whichever way
+ * the publish ends. Each workspace is a directory under {@link #root()} that holds a lock file for as long as the
+ * workspace is open, so {@link TempWorkspaceJanitor} can tell workspaces left behind by a crash from live ones.
+ */
+class TempWorkspace implements Closeable {
+    static final long QUOTA_BYTES =
+            Long.getLong(TempWorkspace.class.getName() + ".quotaMegabytes", 2048) * 1024 * 1024;
+    private static final Logger LOGGER = Logger.getLogger(TempWorkspace.class.getName());
+    private static final String LOCK_FILE = ".lock";
+
+    private final File dir;
+    private final long quotaBytes;
+    private final FileChannel lockChannel;
+    private final Map<File, Long> reservations = new HashMap<>();
+    private long reservedBytes;
+
+    /**
+     * @param quotaBytes upper bound for the sizes announced to {@link #newFile}, 0 for no limit.
+     */
+    TempWorkspace(File root, long quotaBytes) throws IOException {
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("Could not create temp directory: " + root.getAbsolutePath());
+        }
+        this.dir = Files.createTempDirectory(root.toPath(), "publish").toFile();
+        this.quotaBytes = quotaBytes;
+        this.lockChannel = FileChannel.open(new File(dir, LOCK_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (lockChannel.tryLock() == null) {
+            lockChannel.close();
+            Util.deleteRecursive(dir);
+            throw new IOException("Could not lock temp directory: " + dir.getAbsolutePath());
+        }
+    }
+
+    static TempWorkspace create() throws IOException {
+        return new TempWorkspace(root(), QUOTA_BYTES);
+    }
+
+    static File root() {
+        return new File(System.getProperty("java.io.tmpdir"), "fabric-beta-publisher");
+    }
+
+    File getDir() {
+        return dir;
+    }
+
+    /**
+     * @param expectedBytes how large the file is going to get, counted against the quota until it is deleted.
+     * @throws IOException if the file would not fit into the quota.
+     */
+    synchronized File newFile(String prefix, String suffix, long expectedBytes) throws IOException {
+        if (quotaBytes > 0 && reservedBytes + expectedBytes > quotaBytes) {
+            throw new IOException(String.format(Locale.US,
+                    "Temporary files would exceed the quota of %d MB (%d MB in use, %d MB requested)",
+                    toMegabytes(quotaBytes), toMegabytes(reservedBytes), toMegabytes(expectedBytes)));
+        }
+        File file = File.createTempFile(prefix, suffix, dir);
+        reservations.put(file, expectedBytes);
+        reservedBytes += expectedBytes;
+        return file;
+    }
+
+    File newDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(dir.toPath(), prefix).toFile();
+    }
+
+    /**
+     * Deletes a file or directory before the workspace is closed and returns its share of the quota.
+     */
+    synchronized void delete(PrintStream logger, File file) {
+        boolean deleted;
+        try {
+            Util.deleteRecursive(file);
+            deleted = true;
+        } catch (IOException e) {
+            deleted = false;
+        }
+        logger.println("Temporary " + file.getName() + " got deleted = " + deleted);
+        Long expectedBytes = reservations.remove(file);
+        if (expectedBytes != null) {
+            reservedBytes -= expectedBytes;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            lockChannel.close();
+        } finally {
+            reservations.clear();
+            reservedBytes = 0;
+            Util.deleteRecursive(dir);
+        }
+    }
+
+    /**
+     * Deletes the workspaces under {@code root} that nobody holds a lock on anymore.
+     *
+     * @return number of workspaces deleted.
+     */
+    static int removeOrphans(File root) {
+        File[] children = root.listFiles();
+        if (children == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (File child : children) {
+            if (child.isDirectory() && isOrphan(child)) {
+                try {
+                    Util.deleteRecursive(child);
+                    removed++;
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to delete orphaned temp directory " + child, e);
+                }
+            }
+        }
+        return removed;
+    }
+
+    private static boolean isOrphan(File workspaceDir) {
+        if (System.currentTimeMillis() - workspaceDir.lastModified() < TempWorkspaceJanitor.GRACE_PERIOD_MS) {
+            // might be a workspace that is still being set up
+            return false;
+        }
+        File lockFile = new File(workspaceDir, LOCK_FILE);
+        if (!lockFile.isFile()) {
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return false;
+            }
+            lock.release();
+            return true;
+        } catch (OverlappingFileLockException e) {
+            // held by a publish running in this JVM
+            return false;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to check " + lockFile, e);
+            return false;
+        }
+    }
+
+    private static long toMegabytes(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
@@ -0,0 +1,33 @@
+package fabric.beta.publisher;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the {@link TempWorkspace}s that builds interrupted by a crash or a restart have left behind.
+ */
+@Extension
+public class TempWorkspaceJanitor extends AsyncPeriodicWork {
+    static final long GRACE_PERIOD_MS = TimeUnit.MINUTES.toMillis(
+            Long.getLong(TempWorkspaceJanitor.class.getName() + ".gracePeriodMinutes", 60));
+
+    public TempWorkspaceJanitor() {
+        super("Fabric Beta temp workspace janitor");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return HOUR;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        File root = TempWorkspace.root();
+        int removed = TempWorkspace.removeOrphans(root);
+        listener.getLogger().println("Removed " + removed + " orphaned temp workspaces from " + root);
+    }
+}
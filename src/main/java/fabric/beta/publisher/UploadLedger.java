@@ -0,0 +1,116 @@
+package fabric.beta.publisher;
+
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Remembers which APKs have already been published. Entries are keyed by a hash of the APK content, the API key
+ * and the distribution target, and each one is stored in its own file under a two-level directory fan-out, so a
+ * lookup is a single file read no matter how many entries there are.
+ */
+class UploadLedger {
+    private static final String KEY_BUILD_URL = "buildUrl";
+    private static final String KEY_APK_NAME = "apkName";
+    private static final String KEY_TIMESTAMP = "timestamp";
+
+    private final File rootDir;
+
+    UploadLedger(File rootDir) {
+        this.rootDir = rootDir;
+    }
+
+    static UploadLedger get() {
+        return new UploadLedger(new File(Jenkins.getActiveInstance().getRootDir(), "fabric-beta-publisher/ledger"));
+    }
+
+    /**
+     * @param target where the APK is distributed to, e.g. the testers group.
+     */
+    static String key(String apkSha256, String apiKey, String target) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((apkSha256 + '\n' + apiKey + '\n' + target).getBytes("UTF-8"));
+            return FileUtils.toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return the entry recorded for the key or null.
+     */
+    Entry find(String key) throws IOException {
+        File entryFile = entryFile(key);
+        if (!entryFile.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(entryFile)) {
+            properties.load(inputStream);
+        }
+        return new Entry(properties.getProperty(KEY_BUILD_URL), properties.getProperty(KEY_APK_NAME),
+                Long.parseLong(properties.getProperty(KEY_TIMESTAMP, "0")));
+    }
+
+    /**
+     * @param buildUrl Fabric Beta link of the release, null if it is unknown.
+     */
+    void record(String key, String buildUrl, String apkName) throws IOException {
+        File entryFile = entryFile(key);
+        File dir = entryFile.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create ledger directory: " + dir.getAbsolutePath());
+        }
+        Properties properties = new Properties();
+        if (buildUrl != null) {
+            properties.setProperty(KEY_BUILD_URL, buildUrl);
+        }
+        properties.setProperty(KEY_APK_NAME, apkName);
+        properties.setProperty(KEY_TIMESTAMP, String.valueOf(System.currentTimeMillis()));
+        File tempFile = File.createTempFile(key, ".tmp", dir);
+        try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+            properties.store(outputStream, null);
+        }
+        Files.move(tempFile.toPath(), entryFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File entryFile(String key) {
+        return new File(rootDir, key.substring(0, 2) + File.separator + key.substring(2, 4) + File.separator + key);
+    }
+
+    static final class Entry {
+        private final String buildUrl;
+        private final String apkName;
+        private final long timestamp;
+
+        Entry(String buildUrl, String apkName, long timestamp) {
+            this.buildUrl = buildUrl;
+            this.apkName = apkName;
+            this.timestamp = timestamp;
+        }
+
+        String getBuildUrl() {
+            return buildUrl;
+        }
+
+        String getApkName() {
+            return apkName;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
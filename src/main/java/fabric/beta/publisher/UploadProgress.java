@@ -0,0 +1,136 @@
+package fabric.beta.publisher;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the bytes of a transfer as they are sent and logs how far it got, at most once per
+ * {@link #INTERVAL_NANOS} or whenever another {@link #PERCENT_STEP} percent are done, so slow links show up in the
+ * build log without flooding it.
+ */
+class UploadProgress {
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(
+            Long.getLong(UploadProgress.class.getName() + ".intervalSeconds", 10));
+    private static final int PERCENT_STEP = Integer.getInteger(UploadProgress.class.getName() + ".percentStep", 10);
+    private static final double MEGABYTE = 1024 * 1024;
+
+    private final PrintStream logger;
+    private final String label;
+    private final long totalBytes;
+    private final long intervalNanos;
+    private final int percentStep;
+    private long startNanos;
+    private long bytes;
+    private long lastLogNanos;
+    private long lastLogBytes;
+    private long endNanos;
+
+    /**
+     * @param label      what is being transferred, e.g. {@code Uploading app-release.apk}.
+     * @param totalBytes expected size, -1 if unknown.
+     */
+    UploadProgress(PrintStream logger, String label, long totalBytes) {
+        this(logger, label, totalBytes, INTERVAL_NANOS, PERCENT_STEP);
+    }
+
+    /**
+     * @param intervalNanos 0 to not log based on time.
+     * @param percentStep   0 to not log based on the share that has been sent.
+     */
+    UploadProgress(PrintStream logger, String label, long totalBytes, long intervalNanos, int percentStep) {
+        this.logger = logger;
+        this.label = label;
+        this.totalBytes = totalBytes;
+        this.intervalNanos = intervalNanos;
+        this.percentStep = percentStep;
+        start(System.nanoTime());
+    }
+
+    /**
+     * Starts counting from zero again, e.g. when the request body is written a second time.
+     */
+    synchronized void start(long nowNanos) {
+        startNanos = nowNanos;
+        lastLogNanos = nowNanos;
+        bytes = 0;
+        lastLogBytes = 0;
+        endNanos = 0;
+    }
+
+    void add(long count) {
+        add(count, System.nanoTime());
+    }
+
+    synchronized void add(long count, long nowNanos) {
+        bytes += count;
+        boolean intervalElapsed = intervalNanos > 0 && nowNanos - lastLogNanos >= intervalNanos;
+        boolean stepCompleted = percentStep > 0 && totalBytes > 0
+                && percent(bytes) / percentStep > percent(lastLogBytes) / percentStep && bytes < totalBytes;
+        if (intervalElapsed || stepCompleted) {
+            logger.println(progressLine(nowNanos));
+            lastLogNanos = nowNanos;
+            lastLogBytes = bytes;
+        }
+    }
+
+    /**
+     * Logs the size, duration and average rate of the whole transfer.
+     */
+    void finish() {
+        finish(System.nanoTime());
+    }
+
+    synchronized void finish(long nowNanos) {
+        endNanos = nowNanos;
+        long elapsedNanos = Math.max(1, nowNanos - startNanos);
+        logger.println(String.format(Locale.US, "%s: sent %.2f MB in %.1f s, %.2f MB/s", label, bytes / MEGABYTE,
+                elapsedNanos / 1e9, rate(bytes, elapsedNanos)));
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return how long the transfer took until {@link #finish()}, or until now if it hasn't finished.
+     */
+    synchronized long getElapsedMillis() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    private String progressLine(long nowNanos) {
+        long elapsedNanos = Math.max(1, nowNanos - startNanos);
+        double averageRate = rate(bytes, elapsedNanos);
+        double currentRate = rate(bytes - lastLogBytes, Math.max(1, nowNanos - lastLogNanos));
+        StringBuilder line = new StringBuilder(label).append(": ");
+        if (totalBytes > 0) {
+            line.append(String.format(Locale.US, "%d%% (%.2f of %.2f MB)", percent(bytes), bytes / MEGABYTE,
+                    totalBytes / MEGABYTE));
+        } else {
+            line.append(String.format(Locale.US, "%.2f MB", bytes / MEGABYTE));
+        }
+        line.append(String.format(Locale.US, ", %.2f MB/s now, %.2f MB/s average", currentRate, averageRate));
+        if (totalBytes > 0 && bytes > 0) {
+            long remainingSeconds = (long) Math.ceil((totalBytes - bytes) / MEGABYTE / averageRate);
+            line.append(", ETA ").append(formatSeconds(remainingSeconds));
+        }
+        return line.toString();
+    }
+
+    private int percent(long count) {
+        return (int) Math.min(100, count * 100 / totalBytes);
+    }
+
+    private static double rate(long count, long elapsedNanos) {
+        return count / MEGABYTE / (elapsedNanos / 1e9);
+    }
+
+    private static String formatSeconds(long seconds) {
+        if (seconds < 60) {
+            return seconds + " s";
+        }
+        return String.format(Locale.US, "%d min %02d s", seconds / 60, seconds % 60);
+    }
+}
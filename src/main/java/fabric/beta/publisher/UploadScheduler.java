@@ -0,0 +1,186 @@
+package fabric.beta.publisher;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller-wide limits for uploads, configured on the global configuration page. Uploads wait in a FIFO queue
+ * for a slot; one that is only held back by the limit of its API key lets the uploads behind it go first.
+ */
+class UploadScheduler {
+    private static final UploadScheduler INSTANCE = new UploadScheduler();
+
+    private final LinkedList<Waiter> queue = new LinkedList<>();
+    private final Map<String, Integer> runningPerApiKey = new HashMap<>();
+    private final TokenBucket bandwidth = new TokenBucket();
+    private int maxConcurrentUploads;
+    private int maxUploadsPerApiKey;
+    private int running;
+
+    static UploadScheduler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param maxConcurrentUploads 0 for no limit.
+     * @param maxUploadsPerApiKey  0 for no limit.
+     * @param bytesPerSecond       0 for no limit.
+     */
+    synchronized void configure(int maxConcurrentUploads, int maxUploadsPerApiKey, long bytesPerSecond) {
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        this.maxUploadsPerApiKey = maxUploadsPerApiKey;
+        bandwidth.setRate(bytesPerSecond);
+        grant();
+    }
+
+    /**
+     * Blocks until the upload may start. The permit must be closed once the upload is done.
+     */
+    Permit acquire(PrintStream logger, String apiKey) throws InterruptedException {
+        long start = System.nanoTime();
+        Waiter waiter = new Waiter(apiKey);
+        boolean waited;
+        synchronized (this) {
+            queue.add(waiter);
+            grant();
+            waited = !waiter.granted;
+            if (waited) {
+                logger.println(String.format(Locale.US, "Waiting for an upload slot, %d uploads running, %d queued",
+                        running, queue.size()));
+            }
+            try {
+                while (!waiter.granted) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    release(apiKey);
+                } else {
+                    queue.remove(waiter);
+                }
+                throw e;
+            }
+        }
+        if (waited) {
+            long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            logger.println("Waited " + waitedMs + " ms for an upload slot");
+        }
+        return new Permit(apiKey);
+    }
+
+    /**
+     * Blocks until {@code bytes} may be sent without exceeding the bandwidth limit.
+     */
+    void throttle(long bytes) throws InterruptedException {
+        bandwidth.take(bytes);
+    }
+
+    /**
+     * @return true if {@link #throttle} may block, which only native uploads call.
+     */
+    boolean isBandwidthLimited() {
+        return bandwidth.isLimited();
+    }
+
+    private synchronized void release(String apiKey) {
+        running--;
+        Integer count = runningPerApiKey.get(apiKey);
+        if (count != null && count > 1) {
+            runningPerApiKey.put(apiKey, count - 1);
+        } else {
+            runningPerApiKey.remove(apiKey);
+        }
+        grant();
+    }
+
+    private void grant() {
+        boolean granted = false;
+        for (Iterator<Waiter> it = queue.iterator(); it.hasNext(); ) {
+            if (maxConcurrentUploads > 0 && running >= maxConcurrentUploads) {
+                break;
+            }
+            Waiter waiter = it.next();
+            Integer count = runningPerApiKey.get(waiter.apiKey);
+            int runningForKey = count == null ? 0 : count;
+            if (maxUploadsPerApiKey > 0 && runningForKey >= maxUploadsPerApiKey) {
+                continue;
+            }
+            it.remove();
+            running++;
+            runningPerApiKey.put(waiter.apiKey, runningForKey + 1);
+            waiter.granted = true;
+            granted = true;
+        }
+        if (granted) {
+            notifyAll();
+        }
+    }
+
+    final class Permit implements Closeable {
+        private final String apiKey;
+        private boolean closed;
+
+        private Permit(String apiKey) {
+            this.apiKey = apiKey;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(apiKey);
+            }
+        }
+    }
+
+    private static final class Waiter {
+        private final String apiKey;
+        private boolean granted;
+
+        Waiter(String apiKey) {
+            this.apiKey = apiKey;
+        }
+    }
+
+    /**
+     * Holds up to one second worth of bytes. Callers may take more than there is, and then wait until the debt has
+     * been paid off, so concurrent uploads share the bandwidth in the order they asked for it.
+     */
+    static final class TokenBucket {
+        private long bytesPerSecond;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        synchronized void setRate(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.tokens = Math.min(tokens, bytesPerSecond);
+        }
+
+        synchronized boolean isLimited() {
+            return bytesPerSecond > 0;
+        }
+
+        void take(long bytes) throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                if (bytesPerSecond <= 0) {
+                    return;
+                }
+                long now = System.nanoTime();
+                tokens = Math.min(bytesPerSecond, tokens + (now - lastRefill) * (double) bytesPerSecond / 1e9);
+                lastRefill = now;
+                tokens -= bytes;
+                waitNanos = tokens >= 0 ? 0 : (long) (-tokens * 1e9 / bytesPerSecond);
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+}
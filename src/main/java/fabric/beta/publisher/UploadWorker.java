@@ -0,0 +1,257 @@
+package fabric.beta.publisher;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.Permission;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+/**
+ * Entry point of the long-lived upload JVM started by {@link UploadWorkerClient}.
+ * <p>
+ * crashlytics-devtools.jar is loaded once into an isolated class loader, and the jobs read from stdin run its main
+ * method one after the other on a job thread. They don't run concurrently, since the tools keep their state in
+ * static fields. Output of each job is written to stdout as {@code <job> O|E <line>} and its exit status as
+ * {@code <job> X <status>}. A job whose argument count is sent as -1 is cancelled by interrupting it.
+ * {@code System.exit} called by a job is trapped and becomes that job's status. Where a security manager can't be
+ * installed, an exit ends the worker instead. Only JDK classes may be used here, since the plugin's dependencies are
+ * not on the worker's class path.
+ */
+public final class UploadWorker {
+    private static final InheritableThreadLocal<Job> CURRENT_JOB = new InheritableThreadLocal<>();
+    private static final Map<Integer, Job> JOBS = new ConcurrentHashMap<>();
+    private static JobOutputStream stdout;
+    private static JobOutputStream stderr;
+
+    private UploadWorker() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        File toolsJar = new File(args[0]);
+        String mainClassName;
+        try (JarFile jarFile = new JarFile(toolsJar)) {
+            mainClassName = jarFile.getManifest().getMainAttributes().getValue("Main-Class");
+        }
+        ClassLoader toolsClassLoader = new URLClassLoader(new URL[]{toolsJar.toURI().toURL()},
+                ClassLoader.getSystemClassLoader().getParent());
+        Method main = toolsClassLoader.loadClass(mainClassName).getMethod("main", String[].class);
+
+        PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), true, "UTF-8");
+        stdout = new JobOutputStream(out, 'O', System.err);
+        stderr = new JobOutputStream(out, 'E', System.err);
+        System.setOut(new PrintStream(stdout, true, "UTF-8"));
+        System.setErr(new PrintStream(stderr, true, "UTF-8"));
+
+        if (!trapExit()) {
+            System.err.println("Could not trap System.exit, an upload that exits ends the worker");
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        while (true) {
+            int jobId;
+            try {
+                jobId = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            int argumentCount = in.readInt();
+            if (argumentCount < 0) {
+                Job job = JOBS.get(jobId);
+                if (job != null) {
+                    job.cancel();
+                }
+                continue;
+            }
+            String[] jobArgs = new String[argumentCount];
+            for (int i = 0; i < jobArgs.length; i++) {
+                byte[] arg = new byte[in.readInt()];
+                in.readFully(arg);
+                jobArgs[i] = new String(arg, "UTF-8");
+            }
+            Job job = new Job(jobId, out, main, jobArgs);
+            JOBS.put(jobId, job);
+            executor.submit(job);
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean trapExit() {
+        try {
+            System.setSecurityManager(new ExitTrap());
+            return true;
+        } catch (SecurityException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Turns {@code System.exit} on a job thread into an {@link ExitTrappedException} and allows everything else.
+     */
+    private static final class ExitTrap extends SecurityManager {
+        @Override
+        public void checkPermission(Permission perm) {
+        }
+
+        @Override
+        public void checkPermission(Permission perm, Object context) {
+        }
+
+        @Override
+        public void checkExit(int status) {
+            if (CURRENT_JOB.get() != null) {
+                throw new ExitTrappedException(status);
+            }
+        }
+    }
+
+    private static final class ExitTrappedException extends SecurityException {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+
+        ExitTrappedException(int status) {
+            super("System.exit(" + status + ")");
+            this.status = status;
+        }
+    }
+
+    private static final class Job implements Runnable {
+        private final int id;
+        private final PrintStream out;
+        private final Method main;
+        private final String[] args;
+        private Thread thread;
+        private boolean cancelled;
+
+        Job(int id, PrintStream out, Method main, String[] args) {
+            this.id = id;
+            this.out = out;
+            this.main = main;
+            this.args = args;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (cancelled) {
+                    finish(1);
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            CURRENT_JOB.set(this);
+            int status;
+            try {
+                main.invoke(null, (Object) args);
+                status = 0;
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof ExitTrappedException) {
+                    status = ((ExitTrappedException) e.getCause()).status;
+                } else {
+                    e.getCause().printStackTrace();
+                    status = 1;
+                }
+            } catch (Throwable e) {
+                e.printStackTrace();
+                status = 1;
+            } finally {
+                System.out.flush();
+                System.err.flush();
+                stdout.endLine(this);
+                stderr.endLine(this);
+                CURRENT_JOB.remove();
+                synchronized (this) {
+                    thread = null;
+                }
+                // don't leave a cancellation behind on the pooled thread
+                Thread.interrupted();
+            }
+            finish(status);
+        }
+
+        private void finish(int status) {
+            JOBS.remove(id);
+            synchronized (out) {
+                out.println(id + " X " + status);
+            }
+        }
+    }
+
+    /**
+     * Splits output into lines and tags each one with the job of the thread that wrote it.
+     */
+    private static final class JobOutputStream extends OutputStream {
+        private final PrintStream out;
+        private final char type;
+        private final PrintStream fallback;
+        private final ThreadLocal<ByteArrayOutputStream> line = new ThreadLocal<ByteArrayOutputStream>() {
+            @Override
+            protected ByteArrayOutputStream initialValue() {
+                return new ByteArrayOutputStream();
+            }
+        };
+
+        JobOutputStream(PrintStream out, char type, PrintStream fallback) {
+            this.out = out;
+            this.type = type;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            Job job = CURRENT_JOB.get();
+            if (job == null) {
+                fallback.write(b);
+                return;
+            }
+            if (b == '\n') {
+                emit(job);
+            } else if (b != '\r') {
+                line.get().write(b);
+            }
+        }
+
+        void endLine(Job job) {
+            if (line.get().size() > 0) {
+                emit(job);
+            }
+        }
+
+        private void emit(Job job) {
+            String text;
+            try {
+                text = line.get().toString("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            line.get().reset();
+            synchronized (out) {
+                out.println(job.id + " " + type + " " + text);
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package fabric.beta.publisher;
+
+import hudson.init.Terminator;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Controller side of {@link UploadWorker}. Worker JVMs are kept for the current crashlytics-devtools.jar and reused
+ * by later uploads, which saves starting a JVM and loading the tools for every APK. Since the tools keep static
+ * state, a worker runs one upload at a time, and concurrent uploads get workers of their own. What a worker writes
+ * to its own stderr goes into the log of its upload.
+ */
+class UploadWorkerClient {
+    private static final Logger LOGGER = Logger.getLogger(UploadWorkerClient.class.getName());
+    /**
+     * How long a cancelled upload may take to stop before its worker is destroyed.
+     */
+    private static final long CANCEL_GRACE_MS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(UploadWorkerClient.class.getName() + ".cancelGraceSeconds", 10));
+    /**
+     * Workers kept running between uploads, any others exit once their upload is done.
+     */
+    private static final int MAX_IDLE_WORKERS =
+            Integer.getInteger(UploadWorkerClient.class.getName() + ".maxIdleWorkers", 2);
+    /**
+     * Running workers for the current tools, guarded by the class.
+     */
+    private static final List<UploadWorkerClient> WORKERS = new ArrayList<>();
+
+    private final File toolsFile;
+    private final Process process;
+    private final DataOutputStream stdin;
+    private final Map<Integer, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger nextJobId = new AtomicInteger();
+    private volatile boolean alive = true;
+    private volatile boolean retired;
+    /**
+     * Guarded by the class.
+     */
+    private boolean busy;
+
+    private UploadWorkerClient(List<String> javaCommand, File toolsFile) throws IOException {
+        this.toolsFile = toolsFile;
+        List<String> command = new ArrayList<>(javaCommand);
+        command.add("-cp");
+        command.add(workerClassPath());
+        command.add(UploadWorker.class.getName());
+        command.add(toolsFile.getPath());
+        process = new ProcessBuilder(command).start();
+        stdin = new DataOutputStream(process.getOutputStream());
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readOutput();
+            }
+        }, "Fabric Beta upload worker reader");
+        reader.setDaemon(true);
+        reader.start();
+        Thread errorReader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readErrors();
+            }
+        }, "Fabric Beta upload worker error reader");
+        errorReader.setDaemon(true);
+        errorReader.start();
+    }
+
+    /**
+     * Runs the upload in an idle worker for the given tools, or in a new one if all of them are busy. Workers for an
+     * older tools version are asked to exit once their upload is finished.
+     *
+     * @param javaCommand the java executable and JVM options a new worker is started with.
+     * @see #runJob
+     */
+    static boolean run(PrintStream logger, List<String> javaCommand, File toolsFile, List<String> arguments,
+                       long timeoutMs) throws IOException, InterruptedException {
+        UploadWorkerClient worker = acquire(logger, javaCommand, toolsFile);
+        try {
+            return worker.runJob(logger, arguments, timeoutMs);
+        } finally {
+            release(worker);
+        }
+    }
+
+    private static synchronized UploadWorkerClient acquire(PrintStream logger, List<String> javaCommand,
+                                                           File toolsFile) throws IOException {
+        for (Iterator<UploadWorkerClient> workers = WORKERS.iterator(); workers.hasNext(); ) {
+            UploadWorkerClient worker = workers.next();
+            if (!worker.alive || !worker.toolsFile.equals(toolsFile)) {
+                workers.remove();
+                worker.retire();
+            }
+        }
+        for (UploadWorkerClient worker : WORKERS) {
+            if (!worker.busy) {
+                worker.busy = true;
+                return worker;
+            }
+        }
+        logger.println("Starting upload worker JVM: " + javaCommand);
+        UploadWorkerClient worker = new UploadWorkerClient(javaCommand, toolsFile);
+        worker.busy = true;
+        WORKERS.add(worker);
+        return worker;
+    }
+
+    private static synchronized void release(UploadWorkerClient worker) {
+        worker.busy = false;
+        if (!WORKERS.contains(worker)) {
+            // retired or destroyed during the upload
+            return;
+        }
+        int idle = 0;
+        for (UploadWorkerClient other : WORKERS) {
+            if (!other.busy) {
+                idle++;
+            }
+        }
+        if (!worker.alive || idle > MAX_IDLE_WORKERS) {
+            WORKERS.remove(worker);
+            worker.retire();
+        }
+    }
+
+    /**
+     * Stops the workers when Jenkins shuts down.
+     */
+    @Terminator
+    public static synchronized void shutdown() {
+        for (UploadWorkerClient worker : WORKERS) {
+            worker.retire();
+            worker.process.destroy();
+        }
+        WORKERS.clear();
+    }
+
+    /**
+     * The upload is cancelled when the timeout expires or the calling thread is interrupted, e.g. because the build
+     * has been aborted. If it doesn't stop within {@link #CANCEL_GRACE_MS}, the worker is destroyed.
+     *
+     * @param timeoutMs wall-clock limit for the upload, 0 for none.
+     * @return true if the upload has exited with status 0.
+     * @throws IOException if the worker has died or the upload has timed out, which is worth retrying.
+     */
+    private boolean runJob(PrintStream logger, List<String> arguments, long timeoutMs)
+            throws IOException, InterruptedException {
+        logger.println("Submitting upload to worker JVM: " + arguments);
+        int jobId = nextJobId.incrementAndGet();
+        Job job = new Job(logger);
+        jobs.put(jobId, job);
+        try {
+            synchronized (stdin) {
+                stdin.writeInt(jobId);
+                stdin.writeInt(arguments.size());
+                for (String argument : arguments) {
+                    byte[] bytes = argument.getBytes("UTF-8");
+                    stdin.writeInt(bytes.length);
+                    stdin.write(bytes);
+                }
+                stdin.flush();
+            }
+        } catch (IOException e) {
+            jobs.remove(jobId);
+            alive = false;
+            throw e;
+        }
+        if (!alive) {
+            // the worker might have died before the job was registered with the reader
+            job.die();
+        }
+
+        boolean finished;
+        try {
+            finished = job.await(timeoutMs);
+        } catch (InterruptedException e) {
+            logger.println("Aborted, cancelling upload in worker JVM");
+            cancel(jobId, job);
+            throw e;
+        }
+        if (!finished) {
+            cancel(jobId, job);
+            throw new IOException("Upload timed out after " + TimeUnit.MILLISECONDS.toSeconds(timeoutMs) + " s");
+        }
+        return job.result();
+    }
+
+    private void cancel(int jobId, Job job) {
+        try {
+            synchronized (stdin) {
+                stdin.writeInt(jobId);
+                stdin.writeInt(-1);
+                stdin.flush();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to cancel upload worker job", e);
+        }
+        if (!job.awaitUninterruptibly(CANCEL_GRACE_MS)) {
+            job.logger.println("Upload did not stop, destroying the upload worker JVM");
+            synchronized (UploadWorkerClient.class) {
+                WORKERS.remove(this);
+            }
+            retired = true;
+            alive = false;
+            process.destroy();
+        }
+        jobs.remove(jobId);
+    }
+
+    private void readOutput() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ", 3);
+                Job job = parts.length == 3 ? jobs.get(Integer.valueOf(parts[0])) : null;
+                if (job == null) {
+                    LOGGER.log(Level.FINE, "Unexpected upload worker output: {0}", line);
+                } else if ("X".equals(parts[1])) {
+                    jobs.remove(Integer.valueOf(parts[0]));
+                    job.logger.println("Upload exited with status " + parts[2]);
+                    job.finish("0".equals(parts[2]));
+                    destroyIfIdle();
+                } else {
+                    job.logger.println(parts[2]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // reading fails once a retired worker has been destroyed
+            LOGGER.log(retired ? Level.FINE : Level.WARNING, "Failed to read upload worker output", e);
+        } finally {
+            alive = false;
+            for (Job job : jobs.values()) {
+                job.die();
+            }
+            jobs.clear();
+            process.destroy();
+        }
+    }
+
+    private void readErrors() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream(), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (jobs.isEmpty()) {
+                    LOGGER.log(Level.INFO, "Upload worker: {0}", line);
+                }
+                for (Job job : jobs.values()) {
+                    job.logger.println("Upload worker: " + line);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to read upload worker errors", e);
+        }
+    }
+
+    /**
+     * Lets the pending uploads finish, then destroys the process in case it doesn't exit on its own.
+     */
+    private void retire() {
+        retired = true;
+        try {
+            stdin.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to close upload worker input", e);
+        }
+        destroyIfIdle();
+    }
+
+    private void destroyIfIdle() {
+        if (retired && jobs.isEmpty()) {
+            process.destroy();
+        }
+    }
+
+    private static String workerClassPath() throws IOException {
+        try {
+            return new File(UploadWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static final class Job {
+        private final PrintStream logger;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean success;
+        private volatile boolean died;
+
+        Job(PrintStream logger) {
+            this.logger = logger;
+        }
+
+        void finish(boolean success) {
+            this.success = success;
+            done.countDown();
+        }
+
+        void die() {
+            died = true;
+            done.countDown();
+        }
+
+        /**
+         * @return false if the timeout has expired first.
+         */
+        boolean await(long timeoutMs) throws InterruptedException {
+            if (timeoutMs > 0) {
+                return done.await(timeoutMs, TimeUnit.MILLISECONDS);
+            }
+            done.await();
+            return true;
+        }
+
+        boolean awaitUninterruptibly(long timeoutMs) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return done.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        boolean result() throws IOException {
+            if (died) {
+                throw new IOException("Upload worker JVM exited unexpectedly");
+            }
+            return success;
+        }
+    }
+}
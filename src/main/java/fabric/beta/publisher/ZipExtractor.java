@@ -0,0 +1,144 @@
+package fabric.beta.publisher;
+
+import hudson.util.NamingThreadFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts zip files through their central directory. Only entries accepted by the filter are written, directories
+ * are created up front, and larger entry sets are inflated in parallel on a bounded pool.
+ */
+class ZipExtractor {
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    interface EntryFilter {
+        boolean accept(String entryName);
+    }
+
+    static final EntryFilter ALL_ENTRIES = new EntryFilter() {
+        @Override
+        public boolean accept(String entryName) {
+            return true;
+        }
+    };
+
+    static EntryFilter only(final String entryName) {
+        return new EntryFilter() {
+            @Override
+            public boolean accept(String name) {
+                return name.equals(entryName);
+            }
+        };
+    }
+
+    /**
+     * @return the extracted files.
+     * @throws IOException if an entry would end up outside of {@code destDir}.
+     */
+    static List<File> extract(File zip, File destDir, EntryFilter filter) throws IOException {
+        String destPath = destDir.getCanonicalPath() + File.separator;
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            Set<File> directories = new LinkedHashSet<>();
+            directories.add(destDir);
+            Map<ZipEntry, File> files = new LinkedHashMap<>();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!filter.accept(entry.getName())) {
+                    continue;
+                }
+                File target = new File(destDir, entry.getName());
+                if (!target.getCanonicalPath().startsWith(destPath)) {
+                    throw new IOException("Zip entry " + entry.getName() + " is outside of " + destDir);
+                }
+                if (entry.isDirectory()) {
+                    directories.add(target);
+                } else {
+                    directories.add(target.getParentFile());
+                    files.put(entry, target);
+                }
+            }
+
+            for (File directory : directories) {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Could not create directory: " + directory.getAbsolutePath());
+                }
+            }
+            if (files.size() < 2 || MAX_THREADS < 2) {
+                for (Map.Entry<ZipEntry, File> file : files.entrySet()) {
+                    extractEntry(zipFile, file.getKey(), file.getValue());
+                }
+            } else {
+                extractInParallel(zipFile, files);
+            }
+            return new ArrayList<>(files.values());
+        }
+    }
+
+    private static void extractInParallel(final ZipFile zipFile, Map<ZipEntry, File> files) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_THREADS, files.size()),
+                new NamingThreadFactory(Executors.defaultThreadFactory(), "Fabric Beta unzip"));
+        try {
+            List<Future<Void>> extractions = new ArrayList<>();
+            for (final Map.Entry<ZipEntry, File> file : files.entrySet()) {
+                extractions.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        extractEntry(zipFile, file.getKey(), file.getValue());
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> extraction : extractions) {
+                extraction.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting " + zipFile.getName(), e);
+        } finally {
+            executor.shutdownNow();
+            try {
+                // the zip file gets closed by the caller, so no task may still be reading it
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void extractEntry(ZipFile zipFile, ZipEntry entry, File target) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream inputStream = zipFile.getInputStream(entry);
+             OutputStream outputStream = new FileOutputStream(target)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+    }
+}
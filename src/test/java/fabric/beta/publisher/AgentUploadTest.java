@@ -0,0 +1,95 @@
+package fabric.beta.publisher;
+
+import hudson.FilePath;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AgentUploadTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private PrintStream logger = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+
+        }
+    });
+
+    @Test
+    public void testInstallToolsIsKeyedByChecksum() throws Exception {
+        File jar = temporaryFolder.newFile("crashlytics-devtools.jar");
+        Files.write(jar.toPath(), "tools".getBytes("UTF-8"));
+        FilePath toolsDir = new FilePath(temporaryFolder.newFolder("agent-tools"));
+
+        FilePath installed = AgentUpload.installTools(logger, toolsDir, jar);
+        assertEquals(FileUtils.sha256(jar), installed.getParent().getName());
+        assertEquals("tools", installed.readToString());
+
+        long lastModified = installed.lastModified();
+        assertEquals(installed, AgentUpload.installTools(logger, toolsDir, jar));
+        assertEquals(lastModified, installed.lastModified());
+        assertEquals(1, toolsDir.listDirectories().size());
+    }
+
+    @Test
+    public void testInstallToolsReplacesCorruptedCopy() throws Exception {
+        File jar = temporaryFolder.newFile("crashlytics-devtools.jar");
+        Files.write(jar.toPath(), "tools".getBytes("UTF-8"));
+        FilePath toolsDir = new FilePath(temporaryFolder.newFolder("agent-tools"));
+
+        FilePath installed = AgentUpload.installTools(logger, toolsDir, jar);
+        installed.write("corrupted", "UTF-8");
+
+        assertEquals(installed, AgentUpload.installTools(logger, toolsDir, jar));
+        assertEquals("tools", installed.readToString());
+    }
+
+    @Test
+    public void testInstallToolsKeepsRecentVersions() throws Exception {
+        File jar = temporaryFolder.newFile("crashlytics-devtools.jar");
+        FilePath toolsDir = new FilePath(temporaryFolder.newFolder("agent-tools"));
+        FilePath recent = toolsDir.child("recent");
+        recent.mkdirs();
+        FilePath stale = toolsDir.child("stale");
+        stale.mkdirs();
+        assertTrue(new File(stale.getRemote()).setLastModified(0));
+
+        Files.write(jar.toPath(), "new tools".getBytes("UTF-8"));
+        AgentUpload.installTools(logger, toolsDir, jar);
+
+        assertTrue(recent.exists());
+        assertFalse(stale.exists());
+    }
+
+    @Test
+    public void testInstallToolsKeepsVersionsInUse() throws Exception {
+        File jar = temporaryFolder.newFile("crashlytics-devtools.jar");
+        Files.write(jar.toPath(), "old tools".getBytes("UTF-8"));
+        FilePath toolsDir = new FilePath(temporaryFolder.newFolder("agent-tools"));
+        FilePath oldVersion = AgentUpload.installTools(logger, toolsDir, jar).getParent();
+        for (FilePath file : oldVersion.list()) {
+            assertTrue(new File(file.getRemote()).setLastModified(0));
+        }
+        assertTrue(new File(oldVersion.getRemote()).setLastModified(0));
+
+        // a build that is still on the old version uses it again
+        AgentUpload.installTools(logger, toolsDir, jar);
+        Files.write(jar.toPath(), "new tools".getBytes("UTF-8"));
+        AgentUpload.installTools(logger, toolsDir, jar);
+
+        assertTrue(oldVersion.exists());
+        assertEquals(2, toolsDir.listDirectories().size());
+    }
+}
@@ -0,0 +1,91 @@
+package fabric.beta.publisher;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApkScannerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testFindsMatchesSorted() throws IOException {
+        createFile("b/build/outputs/apk/b-release.apk");
+        createFile("a/build/outputs/apk/a-release.apk");
+        createFile("a/build/outputs/apk/output.json");
+
+        ApkScanner.Result result = new ApkScanner("**/*.apk", null, true, 0).scan(temporaryFolder.getRoot());
+
+        assertEquals(Arrays.asList("a/build/outputs/apk/a-release.apk", "b/build/outputs/apk/b-release.apk"),
+                result.getPaths());
+    }
+
+    @Test
+    public void testSkipsExcludedDirectories() throws IOException {
+        createFile("app/build/outputs/apk/app-release.apk");
+        createFile("node_modules/lib/fixture.apk");
+        createFile("node_modules/other/deep/tree/file.txt");
+
+        ApkScanner.Result result = new ApkScanner("**/*.apk", "**/node_modules", true, 0)
+                .scan(temporaryFolder.getRoot());
+
+        assertEquals(Collections.singletonList("app/build/outputs/apk/app-release.apk"), result.getPaths());
+        // root, app, build, outputs, apk, app-release.apk and node_modules
+        assertEquals(7, result.getVisited());
+    }
+
+    @Test
+    public void testPrunesDirectoriesThatCannotMatch() throws IOException {
+        createFile("app/build/outputs/apk/app-release.apk");
+        createFile("app/build/intermediates/apk/intermediate.apk");
+        createFile("lib/build/outputs/apk/lib.apk");
+
+        ApkScanner.Result result = new ApkScanner("app/build/outputs/**/*.apk", null, true, 0)
+                .scan(temporaryFolder.getRoot());
+
+        assertEquals(Collections.singletonList("app/build/outputs/apk/app-release.apk"), result.getPaths());
+        // root, app, build, outputs, intermediates, lib, apk and app-release.apk
+        assertEquals(8, result.getVisited());
+    }
+
+    @Test
+    public void testMaxDepth() throws IOException {
+        createFile("app-release.apk");
+        createFile("app/build/outputs/apk/app-release.apk");
+
+        ApkScanner.Result result = new ApkScanner("**/*.apk", null, true, 2).scan(temporaryFolder.getRoot());
+
+        assertEquals(Collections.singletonList("app-release.apk"), result.getPaths());
+    }
+
+    @Test
+    public void testFindsLinkedFilesWithoutFollowingLinkedDirectories() throws IOException {
+        createFile("outputs/app-release.apk");
+        createFile("elsewhere/nested/other-release.apk");
+        assertTrue(new File(temporaryFolder.getRoot(), "app").mkdir());
+        Files.createSymbolicLink(new File(temporaryFolder.getRoot(), "app/linked-release.apk").toPath(),
+                new File(temporaryFolder.getRoot(), "outputs/app-release.apk").toPath());
+        Files.createSymbolicLink(new File(temporaryFolder.getRoot(), "app/linked-dir").toPath(),
+                new File(temporaryFolder.getRoot(), "elsewhere/nested").toPath());
+
+        ApkScanner.Result result = new ApkScanner("app/**/*.apk", null, false, 0).scan(temporaryFolder.getRoot());
+
+        assertEquals(Collections.singletonList("app/linked-release.apk"), result.getPaths());
+    }
+
+    private void createFile(String path) throws IOException {
+        File file = new File(temporaryFolder.getRoot(), path);
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        assertTrue(file.createNewFile());
+    }
+}
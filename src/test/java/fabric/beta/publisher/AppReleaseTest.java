@@ -0,0 +1,29 @@
+package fabric.beta.publisher;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AppReleaseTest {
+
+    @Test
+    public void testFromReadsBuildProperties() throws IOException {
+        File apk = TestApks.createTemp();
+
+        AppRelease appRelease = AppRelease.from(apk);
+
+        assertEquals("https://fabric.io/org/android/apps/com.example/beta/releases/abc?build_version=42&display_version=1.0",
+                appRelease.buildLink("org"));
+    }
+
+    @Test
+    public void testFromWithoutBuildProperties() throws IOException {
+        File apk = TestApks.createTempWithEntry("classes.dex", "dex");
+
+        assertNull(AppRelease.from(apk));
+    }
+}
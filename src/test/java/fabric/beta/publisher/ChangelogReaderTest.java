@@ -0,0 +1,134 @@
+package fabric.beta.publisher;
+
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChangelogReaderTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void testMergesChangeSetsOfSeveralRepositories() throws Exception {
+        MultiRepositoryRun run = new MultiRepositoryRun(j.createFreeStyleProject());
+        run.changeSets = Arrays.<ChangeLogSet<? extends ChangeLogSet.Entry>>asList(
+                new StubChangeLogSet(run, "Fix crash", "Add login"), new StubChangeLogSet(run, "Update library"));
+
+        assertEquals(Arrays.asList("Fix crash", "Add login", "Update library"),
+                messages(ChangelogReader.getChangeLogSet(run)));
+    }
+
+    @Test
+    public void testReturnsSingleChangeSet() throws Exception {
+        MultiRepositoryRun run = new MultiRepositoryRun(j.createFreeStyleProject());
+        StubChangeLogSet changeSet = new StubChangeLogSet(run, "Fix crash");
+        run.changeSets = Collections.<ChangeLogSet<? extends ChangeLogSet.Entry>>singletonList(changeSet);
+
+        assertSame(changeSet, ChangelogReader.getChangeLogSet(run));
+    }
+
+    @Test
+    public void testRunWithoutChangeSetsIsEmpty() throws Exception {
+        MultiRepositoryRun run = new MultiRepositoryRun(j.createFreeStyleProject());
+        run.changeSets = null;
+
+        assertTrue(ChangelogReader.getChangeLogSet(run).isEmptySet());
+    }
+
+    @Test
+    public void testFallsBackToEmptyWithoutGetChangeSets() throws Exception {
+        assertTrue(ChangelogReader.getChangeLogSet(new PlainRun(j.createFreeStyleProject())).isEmptySet());
+    }
+
+    private static List<String> messages(ChangeLogSet<? extends ChangeLogSet.Entry> changeSet) {
+        List<String> messages = new ArrayList<>();
+        for (ChangeLogSet.Entry entry : changeSet) {
+            messages.add(entry.getMsg());
+        }
+        return messages;
+    }
+
+    /**
+     * Exposes its change sets like {@code WorkflowRun} does.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public static class MultiRepositoryRun extends Run {
+        private List<ChangeLogSet<? extends ChangeLogSet.Entry>> changeSets;
+
+        MultiRepositoryRun(Job job) throws IOException {
+            super(job, 0);
+        }
+
+        public List<ChangeLogSet<? extends ChangeLogSet.Entry>> getChangeSets() {
+            return changeSets;
+        }
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public static class PlainRun extends Run {
+        PlainRun(Job job) throws IOException {
+            super(job, 0);
+        }
+    }
+
+    private static final class StubChangeLogSet extends ChangeLogSet<StubEntry> {
+        private final List<StubEntry> entries = new ArrayList<>();
+
+        StubChangeLogSet(Run<?, ?> run, String... messages) {
+            super(run, null);
+            for (String message : messages) {
+                entries.add(new StubEntry(message));
+            }
+        }
+
+        @Override
+        public boolean isEmptySet() {
+            return entries.isEmpty();
+        }
+
+        @Override
+        public Iterator<StubEntry> iterator() {
+            return entries.iterator();
+        }
+    }
+
+    private static final class StubEntry extends ChangeLogSet.Entry {
+        private final String msg;
+
+        StubEntry(String msg) {
+            this.msg = msg;
+        }
+
+        @Override
+        public String getMsg() {
+            return msg;
+        }
+
+        @Override
+        public User getAuthor() {
+            return User.getUnknown();
+        }
+
+        @Override
+        public Collection<String> getAffectedPaths() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package fabric.beta.publisher;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.util.StreamTaskListener;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link FakeDevtools} in a child JVM.
+ */
+public class CommandRunnerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    private final PrintStream logger = new PrintStream(log, true);
+
+    @Test
+    public void testOutputIsLogged() throws Exception {
+        assertTrue(CommandRunner.runCommand(logger, fakeDevtools("print", "app.apk")));
+        assertTrue(log.toString(), log.toString().contains("uploaded app.apk"));
+        assertTrue(log.toString(), log.toString().contains("Command exited with status 0"));
+    }
+
+    @Test(timeout = 60000)
+    public void testLotsOfStderrDoesNotBlockTheCommand() throws Exception {
+        assertTrue(CommandRunner.runCommand(logger, fakeDevtools("flood", "1000000")));
+        assertTrue(log.toString(), log.toString().contains("flooded"));
+    }
+
+    @Test
+    public void testNonZeroExitStatusFails() throws Exception {
+        assertFalse(CommandRunner.runCommand(logger, fakeDevtools("exit", "3")));
+        assertTrue(log.toString(), log.toString().contains("Command exited with status 3"));
+    }
+
+    @Test
+    public void testTimeoutThrows() throws Exception {
+        try {
+            CommandRunner.runCommand(logger, fakeDevtools("sleep", "60000"), 500);
+            fail("Expected the command to time out");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Command timed out"));
+        }
+        assertFalse(log.toString(), log.toString().contains("woke up"));
+    }
+
+    @Test
+    public void testAbortKillsTheCommand() throws Exception {
+        final File heartbeat = temporaryFolder.newFile("heartbeat");
+        assertCommandKilledOnAbort(heartbeat, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return CommandRunner.runCommand(logger, fakeDevtools("heartbeat", heartbeat.getPath()));
+            }
+        });
+    }
+
+    @Test
+    public void testLauncherOverload() throws Exception {
+        assertTrue(runWithLauncher(0, "print", "app.apk"));
+        assertTrue(log.toString(), log.toString().contains("uploaded app.apk"));
+        assertFalse(runWithLauncher(0, "exit", "3"));
+        assertTrue(log.toString(), log.toString().contains("Command exited with status 3"));
+        try {
+            runWithLauncher(500, "sleep", "60000");
+            fail("Expected the command to time out");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Command timed out"));
+        }
+    }
+
+    @Test
+    public void testAbortKillsTheLauncherCommand() throws Exception {
+        final File heartbeat = temporaryFolder.newFile("heartbeat");
+        assertCommandKilledOnAbort(heartbeat, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return runWithLauncher(0, "heartbeat", heartbeat.getPath());
+            }
+        });
+    }
+
+    private boolean runWithLauncher(long timeoutMs, String... args) throws Exception {
+        Launcher launcher = new Launcher.LocalLauncher(new StreamTaskListener(logger));
+        return CommandRunner.runCommand(logger, launcher, new FilePath(temporaryFolder.getRoot()),
+                fakeDevtools(args), timeoutMs);
+    }
+
+    /**
+     * Interrupts {@code command} once the child has started writing to {@code heartbeat}, and checks that the
+     * interrupt is passed on and that the child stops writing.
+     */
+    private void assertCommandKilledOnAbort(File heartbeat, Callable<Boolean> command) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> run = executor.submit(command);
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+            while (heartbeat.length() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue("The command has not started", heartbeat.length() > 0);
+
+            run.cancel(true);
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+            assertTrue(log.toString(), log.toString().contains("Aborted, killing command"));
+
+            long length = heartbeat.length();
+            Thread.sleep(500);
+            assertEquals("The command is still running", length, heartbeat.length());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> fakeDevtools(String... args) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(new File(FakeDevtools.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .getPath());
+        command.add(FakeDevtools.class.getName());
+        command.addAll(Arrays.asList(args));
+        return command;
+    }
+}
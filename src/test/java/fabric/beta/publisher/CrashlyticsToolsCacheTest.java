@@ -0,0 +1,124 @@
+package fabric.beta.publisher;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CrashlyticsToolsCacheTest {
+    private static final byte[] TOOLS = "tools".getBytes();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final MockWebServer server = new MockWebServer();
+    private File cacheDir;
+
+    private PrintStream logger = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+
+        }
+    });
+
+    @Before
+    public void startServer() throws IOException {
+        server.start();
+        System.setProperty(FabricApi.class.getName() + ".baseUrl", server.url("/").toString());
+        cacheDir = temporaryFolder.newFolder("tools");
+        CrashlyticsToolsCache.expire();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.shutdown();
+        System.clearProperty(FabricApi.class.getName() + ".baseUrl");
+        CrashlyticsToolsCache.expire();
+    }
+
+    @Test
+    public void testNotModifiedKeepsCachedJar() throws Exception {
+        server.enqueue(toolsResponse().setHeader("ETag", "\"v1\""));
+        File jar = CrashlyticsToolsCache.get(logger, cacheDir);
+        assertArrayEquals(TOOLS, Files.readAllBytes(jar.toPath()));
+        server.takeRequest();
+
+        CrashlyticsToolsCache.expire();
+        server.enqueue(new MockResponse().setResponseCode(304));
+        assertEquals(jar, CrashlyticsToolsCache.get(logger, cacheDir));
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testFallsBackToLastGoodCopy() throws Exception {
+        server.enqueue(toolsResponse());
+        File jar = CrashlyticsToolsCache.get(logger, cacheDir);
+
+        CrashlyticsToolsCache.expire();
+        server.enqueue(new MockResponse().setResponseCode(503));
+        assertEquals(jar, CrashlyticsToolsCache.get(logger, cacheDir));
+        assertArrayEquals(TOOLS, Files.readAllBytes(jar.toPath()));
+
+        // the failed revalidation counts, so the next build doesn't ask again right away
+        assertEquals(jar, CrashlyticsToolsCache.get(logger, cacheDir));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testDiscardsCorruptedCache() throws Exception {
+        server.enqueue(toolsResponse());
+        File jar = CrashlyticsToolsCache.get(logger, cacheDir);
+        Files.write(jar.toPath(), "corrupted".getBytes());
+
+        // the corrupted copy is not used even though it was validated a moment ago
+        server.enqueue(toolsResponse());
+        File downloaded = CrashlyticsToolsCache.get(logger, cacheDir);
+        assertArrayEquals(TOOLS, Files.readAllBytes(downloaded.toPath()));
+        assertEquals(2, server.getRequestCount());
+        server.takeRequest();
+        assertFalse(server.takeRequest().getHeaders().names().contains("If-None-Match"));
+    }
+
+    @Test
+    public void testHashesUnchangedJarOnlyOnce() throws Exception {
+        server.enqueue(toolsResponse());
+        File jar = CrashlyticsToolsCache.get(logger, cacheDir);
+        assertEquals(jar, CrashlyticsToolsCache.get(logger, cacheDir));
+
+        // same size and timestamp, so the jar is not hashed again and the change goes unnoticed
+        long lastModified = jar.lastModified();
+        Files.write(jar.toPath(), "TOOLS".getBytes());
+        assertTrue(jar.setLastModified(lastModified));
+        assertEquals(jar, CrashlyticsToolsCache.get(logger, cacheDir));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    private static MockResponse toolsResponse() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
+            zos.putNextEntry(new ZipEntry("crashlytics-devtools.jar"));
+            zos.write(TOOLS);
+            zos.closeEntry();
+        }
+        return new MockResponse().setBody(new Buffer().write(bytes.toByteArray()));
+    }
+}
@@ -0,0 +1,189 @@
+package fabric.beta.publisher;
+
+import hudson.FilePath;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.util.XStream2;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FabricBetaPublisherTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private FabricStandInServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new FabricStandInServer();
+        server.install();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testOldConfigurationGetsDefaults() {
+        String xml = "<fabric.beta.publisher.FabricBetaPublisher>"
+                + "<apiKey>key</apiKey>"
+                + "<buildSecret>secret</buildSecret>"
+                + "<apkPath>app/build/outputs/apk/*.apk</apkPath>"
+                + "<useAntStyleInclude>true</useAntStyleInclude>"
+                + "</fabric.beta.publisher.FabricBetaPublisher>";
+
+        FabricBetaPublisher publisher = (FabricBetaPublisher) new XStream2().fromXML(xml);
+
+        assertEquals(1, publisher.getMaxParallelUploads());
+        assertEquals(1, publisher.getUploadAttempts());
+        assertEquals(10, publisher.getRetryDelaySeconds());
+        assertEquals(100, publisher.getMaxReleaseNotesChanges());
+        assertTrue(publisher.isFollowSymlinks());
+    }
+
+    @Test
+    public void testSavedOptionsAreKept() {
+        FabricBetaPublisher publisher = new FabricBetaPublisher("key", "secret", null, null, null, null, "app.apk",
+                null, null, null, false);
+        publisher.setRetryDelaySeconds(0);
+        publisher.setFollowSymlinks(false);
+        publisher.setMaxParallelUploads(4);
+        XStream2 xStream = new XStream2();
+
+        FabricBetaPublisher loaded = (FabricBetaPublisher) xStream.fromXML(xStream.toXML(publisher));
+
+        assertEquals(0, loaded.getRetryDelaySeconds());
+        assertEquals(4, loaded.getMaxParallelUploads());
+        assertEquals(false, loaded.isFollowSymlinks());
+    }
+
+    @Test
+    public void testFailedUploadDoesNotStopTheOtherApks() throws Exception {
+        server.setFailingPackage("com.example.first");
+        FreeStyleProject project = projectWithApks(nativePublisher("com.example.first.apk, com.example.second.apk"),
+                "com.example.first", "com.example.second");
+
+        FreeStyleBuild build = j.assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0).get());
+
+        j.assertLogContains("giving up after 1 attempts", build);
+        assertEquals(1, server.getFailures());
+        assertEquals(1, server.getUploads());
+        EnvVarsAction envVars = build.getAction(EnvVarsAction.class);
+        assertNotNull(envVars);
+        Map<String, String> data = envVars.getData();
+        assertTrue(data.toString(), data.get("FABRIC_BETA_BUILD_URL_1").contains("com.example.second"));
+    }
+
+    @Test
+    public void testParallelUploadsKeepTheApkOrder() throws Exception {
+        server.setFailingPackage("com.example.p1").setLatencyMs(200);
+        FabricBetaPublisher publisher = nativePublisher(
+                "com.example.p0.apk, com.example.p1.apk, com.example.p2.apk, com.example.p3.apk");
+        publisher.setMaxParallelUploads(3);
+        FreeStyleProject project = projectWithApks(publisher,
+                "com.example.p0", "com.example.p1", "com.example.p2", "com.example.p3");
+
+        FreeStyleBuild build = j.assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0).get());
+
+        j.assertLogContains("[com.example.p1.apk] Upload of com.example.p1.apk failed", build);
+        assertEquals(3, server.getUploads());
+        Map<String, String> data = build.getAction(EnvVarsAction.class).getData();
+        for (int apkIndex = 0; apkIndex < 4; apkIndex++) {
+            String buildUrl = data.get("FABRIC_BETA_BUILD_URL_" + apkIndex);
+            assertTrue(data.toString(), buildUrl.contains("/apps/com.example.p" + apkIndex + "/"));
+        }
+        assertEquals(data.get("FABRIC_BETA_BUILD_URL_0"), data.get("FABRIC_BETA_BUILD_URL"));
+    }
+
+    @Test
+    public void testParallelUploadExceptionFailsTheBuild() throws Exception {
+        FabricBetaPublisher publisher = nativePublisher("com.example.p0.apk, broken.apk, com.example.p2.apk");
+        publisher.setMaxParallelUploads(3);
+        FreeStyleProject project = projectWithApks(publisher, "com.example.p0", "com.example.p2");
+        j.jenkins.getWorkspaceFor(project).child("broken.apk").write("not a zip file", "UTF-8");
+
+        j.assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0).get());
+
+        assertEquals(2, server.getUploads());
+        assertNoThreadsLeft("Fabric Beta upload");
+    }
+
+    @Test
+    public void testSequentialUploadsStopWhenToolsAreUnavailable() throws Exception {
+        // the latency lets the second APK be prepared while the tools are still being downloaded
+        server.setToolsAvailable(false).setLatencyMs(1000);
+        FabricBetaPublisher publisher = new FabricBetaPublisher("key", "secret", null, null, null, null,
+                "com.example.p0.apk, com.example.p1.apk", null, null, "org", false);
+        FreeStyleProject project = projectWithApks(publisher, "com.example.p0", "com.example.p1");
+
+        FreeStyleBuild build = j.assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0).get());
+
+        String log = JenkinsRule.getLog(build);
+        int waiting = log.indexOf("Waiting for crashlytics-devtools.jar");
+        int prefetched = log.indexOf("Setting environment variable FABRIC_BETA_BUILD_URL_1");
+        int skipped = log.indexOf("Skipping the remaining 1 APKs");
+        assertTrue(log, waiting >= 0 && waiting < prefetched && prefetched < skipped);
+        assertFalse(log, log.contains("Executing command"));
+        assertEquals(0, server.getUploads());
+        assertNoThreadsLeft("Fabric Beta publish stage");
+    }
+
+    private static void assertNoThreadsLeft(String namePrefix) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (threadCount(namePrefix) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, threadCount(namePrefix));
+    }
+
+    private static int threadCount(String namePrefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith(namePrefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return a publisher that uploads without crashlytics-devtools.jar and sets the build link variables.
+     */
+    private static FabricBetaPublisher nativePublisher(String apkPath) {
+        FabricBetaPublisher publisher = new FabricBetaPublisher("key", "secret", null, null, null, null, apkPath,
+                null, null, "org", false);
+        publisher.setNativeUpload(true);
+        publisher.setRetryDelaySeconds(0);
+        return publisher;
+    }
+
+    /**
+     * Creates {@code <packageName>.apk} in the workspace for each of the package names.
+     */
+    private FreeStyleProject projectWithApks(FabricBetaPublisher publisher, String... packageNames)
+            throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject();
+        FilePath workspace = j.jenkins.getWorkspaceFor(project);
+        workspace.mkdirs();
+        for (String packageName : packageNames) {
+            TestApks.create(new File(workspace.getRemote(), packageName + ".apk"), packageName, 1024);
+        }
+        project.getPublishersList().add(publisher);
+        return project;
+    }
+}
@@ -0,0 +1,76 @@
+package fabric.beta.publisher;
+
+import hudson.FilePath;
+import hudson.model.Result;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class FabricBetaUploadStepTest {
+
+    @Rule
+    public RestartableJenkinsRule story = new RestartableJenkinsRule();
+
+    private FabricStandInServer server;
+
+    @Test
+    public void testRestartFailsTheUploadWithoutSavingThePublisher() throws Exception {
+        story.addStep(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                server = new FabricStandInServer().setLatencyMs(60000);
+                server.install();
+                WorkflowJob job = story.j.jenkins.createProject(WorkflowJob.class, "app");
+                FilePath workspace = story.j.jenkins.getWorkspaceFor(job);
+                workspace.mkdirs();
+                TestApks.create(new File(workspace.getRemote(), "app.apk"), "com.example", 1024);
+                job.setDefinition(new CpsFlowDefinition("node { fabricBetaUpload publisher: fabric("
+                        + "apiKey: 'key', buildSecret: 'very-secret', releaseNotesType: 'RELEASE_NOTES_NONE', "
+                        + "notifyTestersType: 'NOTIFY_TESTERS_NONE', apkPath: 'app.apk', nativeUpload: true) }"));
+                WorkflowRun build = job.scheduleBuild2(0).waitForStart();
+                // the stand-in server holds the request until after the restart
+                story.j.waitForMessage("Uploading " + workspace.child("app.apk").getRemote(), build);
+            }
+        });
+        story.addStep(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                try {
+                    WorkflowRun build = story.j.jenkins.getItemByFullName("app", WorkflowJob.class)
+                            .getBuildByNumber(1);
+                    story.j.waitForCompletion(build);
+                    story.j.assertBuildStatus(Result.FAILURE, build);
+                    story.j.assertLogContains("Jenkins restarted during the Fabric Beta upload", build);
+                    assertEquals(0, server.getUploads());
+                    // the script itself is kept with the build, but the publisher must not be saved next to it
+                    assertFalse(containsSavedPublisher(build.getRootDir()));
+                } finally {
+                    server.close();
+                }
+            }
+        });
+    }
+
+    private static boolean containsSavedPublisher(File file) throws Exception {
+        File[] children = file.listFiles();
+        if (children == null) {
+            return new String(Files.readAllBytes(file.toPath()), "ISO-8859-1").contains("<buildSecret>");
+        }
+        for (File child : children) {
+            if (containsSavedPublisher(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,148 @@
+package fabric.beta.publisher;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Local replacement for the tools download and the upload API. {@link #install()} points the plugin at it.
+ * Latency, failures and a bandwidth limit can be injected to see how the publisher behaves under them.
+ */
+class FabricStandInServer implements Closeable {
+    private static final String TOOLS_PATH = "/android/ant/crashlytics.zip";
+    private static final String UPLOAD_PATH = "/spi/v1/platforms/android/apps/";
+
+    private final MockWebServer server = new MockWebServer();
+    private final Random random = new Random();
+    private final AtomicInteger uploads = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final byte[] toolsZip;
+    private volatile long latencyMs;
+    private volatile double errorRate;
+    private volatile long bytesPerSecond;
+    private volatile String failingPackage;
+    private volatile boolean toolsAvailable = true;
+
+    FabricStandInServer() throws IOException {
+        toolsZip = createToolsZip();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                return FabricStandInServer.this.dispatch(request);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @param latencyMs added to every response.
+     */
+    FabricStandInServer setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+        return this;
+    }
+
+    /**
+     * @param errorRate share of uploads that fail with 503, between 0 and 1.
+     */
+    FabricStandInServer setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param bytesPerSecond rate at which downloads are sent and uploads are accepted, 0 for no limit.
+     */
+    FabricStandInServer setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * @param failingPackage package name whose uploads always fail with 503, null for none.
+     */
+    FabricStandInServer setFailingPackage(String failingPackage) {
+        this.failingPackage = failingPackage;
+        return this;
+    }
+
+    /**
+     * @param toolsAvailable false to fail the crashlytics.zip download with 503.
+     */
+    FabricStandInServer setToolsAvailable(boolean toolsAvailable) {
+        this.toolsAvailable = toolsAvailable;
+        return this;
+    }
+
+    void install() {
+        System.setProperty(FabricApi.class.getName() + ".baseUrl", server.url("/").toString());
+        System.setProperty(NativeUploader.class.getName() + ".url",
+                "http://" + server.getHostName() + ":" + server.getPort() + UPLOAD_PATH + "%s/distributions");
+    }
+
+    int getUploads() {
+        return uploads.get();
+    }
+
+    int getFailures() {
+        return failures.get();
+    }
+
+    private MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        if (latencyMs > 0) {
+            Thread.sleep(latencyMs);
+        }
+        String path = request.getPath();
+        if ("GET".equals(request.getMethod()) && TOOLS_PATH.equals(path)) {
+            if (!toolsAvailable) {
+                return new MockResponse().setResponseCode(503);
+            }
+            MockResponse response = new MockResponse().setBody(new Buffer().write(toolsZip));
+            if (bytesPerSecond > 0) {
+                response.throttleBody(bytesPerSecond, 1, TimeUnit.SECONDS);
+            }
+            return response;
+        }
+        if ("POST".equals(request.getMethod()) && path.startsWith(UPLOAD_PATH)) {
+            if (bytesPerSecond > 0) {
+                // MockWebServer reads the whole body before dispatching, so a slow link is simulated afterwards
+                Thread.sleep(request.getBodySize() * 1000 / bytesPerSecond);
+            }
+            if (random.nextDouble() < errorRate || path.startsWith(UPLOAD_PATH + failingPackage + "/")) {
+                failures.incrementAndGet();
+                return new MockResponse().setResponseCode(503);
+            }
+            uploads.incrementAndGet();
+            return new MockResponse().setBody("{}");
+        }
+        return new MockResponse().setResponseCode(404);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.shutdown();
+        System.clearProperty(FabricApi.class.getName() + ".baseUrl");
+        System.clearProperty(NativeUploader.class.getName() + ".url");
+    }
+
+    private static byte[] createToolsZip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
+            zos.putNextEntry(new ZipEntry("crashlytics-devtools.jar"));
+            zos.write(new byte[64 * 1024]);
+            zos.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,79 @@
+package fabric.beta.publisher;
+
+import hudson.FilePath;
+import okhttp3.ResponseBody;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Response;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FabricStandInServerTest {
+
+    private PrintStream logger = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+
+        }
+    });
+
+    private FabricStandInServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FabricStandInServer();
+        server.install();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testServesTools() throws IOException {
+        Response<ResponseBody> response = FabricApi.service().crashlyticsTools(logger, null, null).execute();
+
+        assertEquals(200, response.code());
+        assertTrue(response.body().contentLength() > 0);
+        response.body().close();
+    }
+
+    @Test
+    public void testAcceptsUploads() throws Exception {
+        File apk = TestApks.createTemp();
+        NativeUploader uploader = new NativeUploader(FabricApi.service(), NativeUploader.defaultUploadUrl());
+
+        assertTrue(uploader.upload(logger, "key", "secret", AppRelease.from(apk), new FilePath(apk),
+                Collections.<String, String>emptyMap(), null, progress(apk)));
+        assertEquals(1, server.getUploads());
+    }
+
+    @Test
+    public void testInjectsErrors() throws Exception {
+        server.setErrorRate(1);
+        File apk = TestApks.createTemp();
+        NativeUploader uploader = new NativeUploader(FabricApi.service(), NativeUploader.defaultUploadUrl());
+
+        try {
+            uploader.upload(logger, "key", "secret", AppRelease.from(apk), new FilePath(apk),
+                    Collections.<String, String>emptyMap(), null, progress(apk));
+            fail("Expected a retryable error");
+        } catch (IOException expected) {
+            assertEquals(1, server.getFailures());
+        }
+    }
+
+    private UploadProgress progress(File apk) {
+        return new UploadProgress(logger, "Uploading " + apk.getName(), apk.length());
+    }
+}
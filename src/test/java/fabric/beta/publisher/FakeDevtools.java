@@ -0,0 +1,57 @@
+package fabric.beta.publisher;
+
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Stands in for crashlytics-devtools.jar in {@link UploadWorkerClientTest} and {@link CommandRunnerTest}. The first
+ * argument selects what it does.
+ */
+public final class FakeDevtools {
+    private FakeDevtools() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        switch (args[0]) {
+            case "print":
+                System.out.println("uploaded " + args[1]);
+                break;
+            case "stderr":
+                System.err.println("warning: " + args[1]);
+                break;
+            case "exit":
+                System.out.println("exiting with " + args[1]);
+                System.exit(Integer.parseInt(args[1]));
+                break;
+            case "sleep":
+                Thread.sleep(Long.parseLong(args[1]));
+                System.out.println("woke up");
+                break;
+            case "flood":
+                // far more than a pipe buffer holds, so the process blocks unless stderr is drained
+                char[] line = new char[99];
+                Arrays.fill(line, 'x');
+                for (long written = 0; written < Long.parseLong(args[1]); written += line.length + 1) {
+                    System.err.println(line);
+                }
+                System.out.println("flooded");
+                break;
+            case "heartbeat":
+                try (FileOutputStream out = new FileOutputStream(args[1])) {
+                    while (true) {
+                        out.write('.');
+                        Thread.sleep(50);
+                    }
+                }
+            case "jvm":
+                Thread.sleep(Long.parseLong(args[1]));
+                System.out.println("jvm " + ManagementFactory.getRuntimeMXBean().getName());
+                break;
+            case "throw":
+                throw new IllegalStateException("broken tools");
+            default:
+                throw new IllegalArgumentException(args[0]);
+        }
+    }
+}
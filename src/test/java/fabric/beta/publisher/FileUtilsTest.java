@@ -1,29 +1,100 @@
 package fabric.beta.publisher;
 
+import hudson.FilePath;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
 
-import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class FileUtilsTest {
 
-    private PrintStream logger = new PrintStream(new OutputStream() {
-        @Override
-        public void write(int b) throws IOException {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
+    private final PrintStream logger = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
         }
     });
 
     @Test
-    public void testExtractCrashlyticsJar() throws IOException {
-        ClassLoader classLoader = getClass().getClassLoader();
-        File crashlyticsZip = new File(classLoader.getResource("crashlytics.zip").getFile());
-        File jar = FileUtils.extractCrashlyticsJar(crashlyticsZip, logger);
+    public void testSha256() throws IOException {
+        File file = temporaryFolder.newFile("abc.txt");
+        Files.write(file.toPath(), "abc".getBytes("UTF-8"));
+
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", FileUtils.sha256(file));
+    }
+
+    @Test
+    public void testCreateTemporaryUploadFile() throws Exception {
+        FilePath apk = apk();
+        try (TempWorkspace tempWorkspace = new TempWorkspace(temporaryFolder.newFolder(), 0)) {
+            File copy = FileUtils.createTemporaryUploadFile(logger, tempWorkspace, apk);
+
+            assertArrayEquals(Files.readAllBytes(new File(apk.getRemote()).toPath()),
+                    Files.readAllBytes(copy.toPath()));
+        }
+    }
+
+    @Test
+    public void testChecksumMismatchDeletesTheCopy() throws Exception {
+        FileUtils.SendFileCallable corruptingSender = new FileUtils.SendFileCallable() {
+            @Override
+            void send(OutputStream out, byte[] buffer, int length) throws IOException {
+                buffer[0] ^= 1;
+                super.send(out, buffer, length);
+            }
+        };
+        try (TempWorkspace tempWorkspace = new TempWorkspace(temporaryFolder.newFolder(), 0)) {
+            try {
+                FileUtils.createTemporaryUploadFile(logger, tempWorkspace, apk(), corruptingSender);
+                fail("Expected a checksum mismatch");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Checksum mismatch"));
+            }
+            assertOnlyLockFileLeft(tempWorkspace);
+        }
+    }
+
+    @Test
+    public void testInterruptDeletesTheCopy() throws Exception {
+        FilePath apk = apk();
+        try (TempWorkspace tempWorkspace = new TempWorkspace(temporaryFolder.newFolder(), 0)) {
+            // writing to an interruptible file channel fails once the thread has been interrupted
+            Thread.currentThread().interrupt();
+            try {
+                FileUtils.createTemporaryUploadFile(logger, tempWorkspace, apk);
+                fail("Expected the copy to be interrupted");
+            } catch (IOException | InterruptedException e) {
+                // expected
+            } finally {
+                Thread.interrupted();
+            }
+            assertOnlyLockFileLeft(tempWorkspace);
+        }
+    }
+
+    private FilePath apk() throws IOException {
+        File apk = temporaryFolder.newFile("app.apk");
+        byte[] content = new byte[3 * 1024 * 1024];
+        Arrays.fill(content, (byte) 7);
+        Files.write(apk.toPath(), content);
+        return new FilePath(apk);
+    }
 
-        assertNotNull(jar);
+    private static void assertOnlyLockFileLeft(TempWorkspace tempWorkspace) {
+        assertEquals(Collections.singletonList(".lock"), Arrays.asList(tempWorkspace.getDir().list()));
     }
 }
@@ -0,0 +1,50 @@
+package fabric.beta.publisher;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class LinePrefixOutputStreamTest {
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    private final PrintStream logger = new PrintStream(log, true);
+    private final String newLine = System.lineSeparator();
+
+    @Test
+    public void testPrefixesEachLine() throws Exception {
+        PrintStream first = new PrintStream(new LinePrefixOutputStream(logger, "[a.apk] "), true, "UTF-8");
+        PrintStream second = new PrintStream(new LinePrefixOutputStream(logger, "[b.apk] "), true, "UTF-8");
+
+        first.print("Uploading ");
+        second.println("Uploading");
+        first.println("now");
+        first.close();
+
+        assertEquals("[b.apk] Uploading" + newLine + "[a.apk] Uploading now" + newLine, log.toString("UTF-8"));
+    }
+
+    @Test
+    public void testCloseWritesUnfinishedLine() throws Exception {
+        PrintStream stream = new PrintStream(new LinePrefixOutputStream(logger, "[a.apk] "), true, "UTF-8");
+        stream.print("done");
+        assertEquals("", log.toString("UTF-8"));
+
+        stream.close();
+        assertEquals("[a.apk] done\n", log.toString("UTF-8"));
+    }
+
+    @Test
+    public void testSplitsLongLines() throws Exception {
+        LinePrefixOutputStream stream = new LinePrefixOutputStream(logger, "> ");
+        byte[] bytes = new byte[LinePrefixOutputStream.MAX_LINE_BYTES + 1];
+        Arrays.fill(bytes, (byte) 'x');
+        stream.write(bytes, 0, bytes.length);
+
+        assertEquals(LinePrefixOutputStream.MAX_LINE_BYTES + 2, log.size());
+        stream.close();
+        assertEquals(LinePrefixOutputStream.MAX_LINE_BYTES + 2 + 4, log.size());
+    }
+}
@@ -0,0 +1,129 @@
+package fabric.beta.publisher;
+
+import hudson.FilePath;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Retrofit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NativeUploaderTest {
+
+    private PrintStream logger = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+
+        }
+    });
+
+    private MockWebServer server;
+    private NativeUploader uploader;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        FabricService service = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .build()
+                .create(FabricService.class);
+        uploader = new NativeUploader(service, server.url("/apps/%s/distributions").toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testUploadStreamsApkWithParameters() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201));
+        File apk = TestApks.createTemp();
+        File releaseNotes = File.createTempFile("release-notes", ".txt");
+        releaseNotes.deleteOnExit();
+        Files.write(releaseNotes.toPath(), "Fixed bugs".getBytes("UTF-8"));
+
+        UploadProgress progress = new UploadProgress(logger, "Uploading " + apk.getName(), apk.length());
+        boolean success = uploader.upload(logger, "key", "secret", AppRelease.from(apk), new FilePath(apk),
+                Collections.singletonMap("distribution[notifications]", "true"), releaseNotes, progress);
+
+        assertTrue(success);
+        assertEquals(apk.length(), progress.getBytes());
+        RecordedRequest request = server.takeRequest();
+        assertEquals("/apps/com.example/distributions", request.getPath());
+        assertEquals("key", request.getHeader("X-CRASHLYTICS-API-KEY"));
+        assertEquals("secret", request.getHeader("X-CRASHLYTICS-BUILD-SECRET"));
+        String body = request.getBody().readUtf8();
+        assertTrue(body.contains("Fixed bugs"));
+        assertTrue(body.contains("name=\"distribution[notifications]\""));
+        assertTrue(body.contains("filename=\"" + apk.getName() + "\""));
+        assertTrue(request.getBodySize() > apk.length());
+    }
+
+    @Test
+    public void testUploadFailsOnErrorResponse() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(422).setBody("invalid"));
+        File apk = TestApks.createTemp();
+
+        boolean success = uploader.upload(logger, "key", "secret", AppRelease.from(apk), new FilePath(apk),
+                Collections.<String, String>emptyMap(), null, progress(apk));
+
+        assertFalse(success);
+    }
+
+    @Test
+    public void testRejectedUploadIsTriedOnce() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(403));
+        server.enqueue(new MockResponse().setResponseCode(201));
+
+        assertFalse(uploadWithRetries(3));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testServerErrorIsRetried() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(503));
+        }
+
+        assertFalse(uploadWithRetries(3));
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void testRetriedUploadSucceeds() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(201));
+
+        assertTrue(uploadWithRetries(3));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    private boolean uploadWithRetries(int attempts) throws Exception {
+        final File apk = TestApks.createTemp();
+        return new RetryPolicy(attempts, 0).run(logger, "Upload", new RetryPolicy.Attempt() {
+            @Override
+            public boolean run() throws IOException, InterruptedException {
+                return uploader.upload(logger, "key", "secret", AppRelease.from(apk), new FilePath(apk),
+                        Collections.<String, String>emptyMap(), null, progress(apk));
+            }
+        });
+    }
+
+    private UploadProgress progress(File apk) {
+        return new UploadProgress(logger, "Uploading " + apk.getName(), apk.length());
+    }
+}
@@ -0,0 +1,65 @@
+package fabric.beta.publisher;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PublishTimingActionTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void testTotalIsWallClockTimeOfThePublish() throws Exception {
+        PublishTimingAction timings = new PublishTimingAction();
+        long startTimeMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        // overlapping phases, as recorded by the tools download and the release notes running side by side
+        timings.recordDuration(null, PublishTimingAction.PHASE_TOOLS, 200, -1);
+        timings.recordDuration(null, PublishTimingAction.PHASE_RELEASE_NOTES, 200, -1);
+        timings.recordPublish(startTimeMillis, startNanos - TimeUnit.MILLISECONDS.toNanos(250));
+
+        assertEquals(startTimeMillis, timings.getStartTimeMillis());
+        assertTrue(String.valueOf(timings.getTotalMillis()), timings.getTotalMillis() >= 250);
+        assertTrue(String.valueOf(timings.getTotalMillis()), timings.getTotalMillis() < 400);
+    }
+
+    @Test
+    public void testExportsPhasesThroughTheRemoteApi() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject();
+        FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        PublishTimingAction timings = new PublishTimingAction();
+        timings.recordDuration("app.apk", PublishTimingAction.PHASE_TRANSFER, 2000, 4096);
+        timings.recordPublish(System.currentTimeMillis(), System.nanoTime());
+        timings.recordConnections(new PublishTimingAction.ConnectionStatistics(2, 1, 1, 10, 8));
+        build.addAction(timings);
+
+        JSONObject json = JSONObject.fromObject(j.createWebClient()
+                .goTo(build.getUrl() + "fabricBetaTimings/api/json?depth=1", "application/json")
+                .getWebResponse().getContentAsString());
+        assertEquals(timings.getStartTimeMillis(), json.getLong("startTimeMillis"));
+        assertEquals(timings.getTotalMillis(), json.getLong("totalMillis"));
+        JSONArray phases = json.getJSONArray("phases");
+        assertEquals(1, phases.size());
+        JSONObject phase = phases.getJSONObject(0);
+        assertEquals("app.apk", phase.getString("apk"));
+        assertEquals(PublishTimingAction.PHASE_TRANSFER, phase.getString("name"));
+        assertEquals(2000, phase.getLong("durationMillis"));
+        assertEquals(2048, phase.getLong("bytesPerSecond"));
+        JSONObject connections = json.getJSONObject("connections");
+        assertEquals(2, connections.getInt("openConnections"));
+        assertEquals(10, connections.getLong("requests"));
+        assertEquals(8, connections.getLong("reusedRequests"));
+
+        j.createWebClient().goTo(build.getUrl() + "fabricBetaTimings/");
+    }
+}
@@ -0,0 +1,170 @@
+package fabric.beta.publisher;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs concurrent publishes against {@link FabricStandInServer} and prints throughput, latency percentiles and the
+ * peak heap and thread usage of the controller. Not part of the regular test run, start it with:
+ * <pre>
+ * mvn test -Dtest=PublisherLoadHarness -Dload.publishes=50 -Dload.apkSizeKb=20480 -Dload.latencyMs=200
+ * </pre>
+ * Further knobs are {@code load.errorRate}, {@code load.bytesPerSecond} and {@code load.uploadAttempts}.
+ */
+public class PublisherLoadHarness {
+    private static final int PUBLISHES = Integer.getInteger("load.publishes", 20);
+    private static final int APK_SIZE_KB = Integer.getInteger("load.apkSizeKb", 1024);
+    private static final long LATENCY_MS = Long.getLong("load.latencyMs", 0);
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty("load.errorRate", "0"));
+    private static final long BYTES_PER_SECOND = Long.getLong("load.bytesPerSecond", 0);
+    private static final int UPLOAD_ATTEMPTS = Integer.getInteger("load.uploadAttempts", 3);
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final PrintStream logger = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+
+        }
+    });
+
+    private FabricStandInServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new FabricStandInServer()
+                .setLatencyMs(LATENCY_MS)
+                .setErrorRate(ERROR_RATE)
+                .setBytesPerSecond(BYTES_PER_SECOND);
+        server.install();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void concurrentPublishes() throws Exception {
+        FreeStyleProject project = r.createFreeStyleProject();
+        final FreeStyleBuild build = r.buildAndAssertSuccess(project);
+        final FilePath workspace = new FilePath(temporaryFolder.getRoot());
+        TestApks.create(new File(temporaryFolder.getRoot(), "app-release.apk"), "com.example", APK_SIZE_KB * 1024);
+
+        final FabricBetaPublisher publisher = new FabricBetaPublisher("apiKey", "buildSecret",
+                FabricBetaPublisher.RELEASE_NOTES_TYPE_NONE, null, null, null, "app-release.apk", null, null, null,
+                false);
+        publisher.setNativeUpload(true);
+        publisher.setUploadAttempts(UPLOAD_ATTEMPTS);
+        publisher.setRetryDelaySeconds(1);
+
+        ResourceSampler sampler = new ResourceSampler();
+        sampler.start();
+        ExecutorService executor = Executors.newFixedThreadPool(PUBLISHES);
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < PUBLISHES; i++) {
+            futures.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    startSignal.await();
+                    long start = System.nanoTime();
+                    boolean success = publisher.publish(build, new EnvVars(), workspace, logger);
+                    long elapsed = System.nanoTime() - start;
+                    return success ? elapsed : -elapsed;
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        startSignal.countDown();
+        List<Long> latencies = new ArrayList<>();
+        int failed = 0;
+        for (Future<Long> future : futures) {
+            long elapsed = future.get();
+            if (elapsed < 0) {
+                failed++;
+            }
+            latencies.add(Math.abs(elapsed));
+        }
+        double totalSeconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+        sampler.interrupt();
+        sampler.join();
+
+        Collections.sort(latencies);
+        System.out.println(String.format(Locale.US,
+                "%d publishes of %d KB in %.2f s: %.2f publishes/s, %.2f MB/s, p50 %d ms, p99 %d ms, "
+                        + "%d failed, %d injected errors, peak heap %d MB, peak threads %d",
+                PUBLISHES, APK_SIZE_KB, totalSeconds, PUBLISHES / totalSeconds,
+                PUBLISHES * APK_SIZE_KB / 1024.0 / totalSeconds,
+                TimeUnit.NANOSECONDS.toMillis(percentile(latencies, 50)),
+                TimeUnit.NANOSECONDS.toMillis(percentile(latencies, 99)),
+                failed, server.getFailures(), sampler.peakHeapBytes / (1024 * 1024), sampler.peakThreads));
+        if (ERROR_RATE == 0) {
+            assertEquals(0, failed);
+        }
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    private static final class ResourceSampler extends Thread {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private volatile long peakHeapBytes;
+        private volatile int peakThreads;
+
+        ResourceSampler() {
+            super("Load harness resource sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                peakHeapBytes = Math.max(peakHeapBytes, memory.getHeapMemoryUsage().getUsed());
+                peakThreads = Math.max(peakThreads, threads.getThreadCount());
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package fabric.beta.publisher;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReleaseNotesActionTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private FreeStyleProject project;
+
+    @Before
+    public void createProject() throws Exception {
+        project = j.createFreeStyleProject();
+    }
+
+    @Test
+    public void testSkipsDuplicateCommits() throws Exception {
+        build(false, change("a", "Fix crash"), change("b", "Add login"));
+        FreeStyleBuild build = build(false, change("b", "Add login"), change("c", "Fix typo"));
+
+        assertEquals(Arrays.asList("Add login", "Fix typo", "Fix crash"),
+                ReleaseNotesAction.changesSinceLastPublish(build, 100));
+    }
+
+    @Test
+    public void testStopsAtMaxChanges() throws Exception {
+        build(false, change("a", "Fix crash"), change("b", "Add login"));
+        FreeStyleBuild build = build(false, change("c", "Fix typo"));
+
+        assertEquals(Arrays.asList("Fix typo", "Fix crash"), ReleaseNotesAction.changesSinceLastPublish(build, 2));
+    }
+
+    @Test
+    public void testStopsAtLastPublishedBuild() throws Exception {
+        build(false, change("a", "Fix crash"));
+        build(true, change("b", "Add login"));
+        build(false, change("c", "Fix typo"));
+        FreeStyleBuild build = build(false, change("d", "Update icon"));
+
+        assertEquals(Arrays.asList("Update icon", "Fix typo"),
+                ReleaseNotesAction.changesSinceLastPublish(build, 100));
+    }
+
+    @Test
+    public void testIncludesOwnChangesWhenPublishedBefore() throws Exception {
+        FreeStyleBuild build = build(true, change("a", "Fix crash"));
+
+        assertEquals(Arrays.asList("Fix crash"), ReleaseNotesAction.changesSinceLastPublish(build, 100));
+    }
+
+    private FreeStyleBuild build(boolean published, ReleaseNotesAction.Change... changes) throws Exception {
+        FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        ReleaseNotesAction action = new ReleaseNotesAction(Arrays.asList(changes));
+        if (published) {
+            action.markPublished();
+        }
+        build.addAction(action);
+        return build;
+    }
+
+    private static ReleaseNotesAction.Change change(String commitId, String msg) {
+        return new ReleaseNotesAction.Change(commitId, msg);
+    }
+}
@@ -0,0 +1,191 @@
+package fabric.beta.publisher;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static fabric.beta.publisher.FabricBetaPublisher.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReleaseNotesFormatterTest {
+    private static final String FOUR_BYTES = "\uD83D\uDE00";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final PrintStream logger = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+    });
+
+    @Test
+    public void testTruncatesExactlyAtTheCap() throws IOException {
+        for (String character : Arrays.asList("a", "\u00E9", "\u20AC", FOUR_BYTES)) {
+            int size = character.getBytes("UTF-8").length;
+            String text = character + character + character + character;
+
+            ByteArrayOutputStream fits = new ByteArrayOutputStream();
+            ReleaseNotesFormatter.BoundedWriter writer = new ReleaseNotesFormatter.BoundedWriter(fits, 4 * size);
+            writer.write(text);
+            writer.close();
+            assertFalse(character, writer.isTruncated());
+            assertEquals(character, text, fits.toString("UTF-8"));
+
+            ByteArrayOutputStream cut = new ByteArrayOutputStream();
+            writer = new ReleaseNotesFormatter.BoundedWriter(cut, 4 * size - 1);
+            writer.write(text);
+            writer.close();
+            assertTrue(character, writer.isTruncated());
+            assertEquals(character, 3 * size, writer.getBytesWritten());
+            assertEquals(character, text.substring(0, 3 * character.length()), cut.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testSurrogatePairSplitAcrossWrites() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ReleaseNotesFormatter.BoundedWriter writer = new ReleaseNotesFormatter.BoundedWriter(bytes, 5);
+        writer.write("a" + FOUR_BYTES.charAt(0));
+        writer.write(FOUR_BYTES.charAt(1) + "b");
+        writer.close();
+
+        assertTrue(writer.isTruncated());
+        assertEquals(5, writer.getBytesWritten());
+        assertEquals("a" + FOUR_BYTES, bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void testSurrogatePairSplitAcrossWritesIsDroppedWhole() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ReleaseNotesFormatter.BoundedWriter writer = new ReleaseNotesFormatter.BoundedWriter(bytes, 4);
+        writer.write("a" + FOUR_BYTES.charAt(0));
+        writer.write(FOUR_BYTES.charAt(1) + "b");
+        writer.close();
+
+        assertTrue(writer.isTruncated());
+        assertEquals("a", bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void testFileWithSurrogatePairAtTheBufferBoundary() throws Exception {
+        StringBuilder notes = new StringBuilder();
+        for (int i = 0; i < 8191; i++) {
+            notes.append('a');
+        }
+        notes.append(FOUR_BYTES).append('b');
+        Files.write(temporaryFolder.newFile("notes.txt").toPath(), notes.toString().getBytes("UTF-8"));
+
+        assertEquals(notes.toString(), render(RELEASE_NOTES_TYPE_FILE, emptyChangeLog(), new EnvVars()));
+    }
+
+    @Test
+    public void testParameter() throws Exception {
+        EnvVars environment = new EnvVars("NOTES", "Fix crash");
+
+        assertEquals("Fix crash", render(RELEASE_NOTES_TYPE_PARAMETER, emptyChangeLog(), environment));
+    }
+
+    @Test
+    public void testFile() throws Exception {
+        Files.write(temporaryFolder.newFile("notes.txt").toPath(), "Fix crash".getBytes("UTF-8"));
+
+        assertEquals("Fix crash", render(RELEASE_NOTES_TYPE_FILE, emptyChangeLog(), new EnvVars()));
+    }
+
+    @Test
+    public void testChangelog() throws Exception {
+        assertEquals("\nFix crash", render(RELEASE_NOTES_TYPE_CHANGELOG, changeLog("Fix crash"), new EnvVars()));
+        assertEquals("\n* Fix crash\n* Add login",
+                render(RELEASE_NOTES_TYPE_CHANGELOG, changeLog("Fix crash", "Add login"), new EnvVars()));
+    }
+
+    @Test
+    public void testEmptyReleaseNotes() throws Exception {
+        assertEquals(null, render(RELEASE_NOTES_TYPE_NONE, changeLog("Fix crash"), new EnvVars()));
+        assertEquals(null, render(RELEASE_NOTES_TYPE_CHANGELOG, emptyChangeLog(), new EnvVars()));
+        assertEquals(null, render(RELEASE_NOTES_TYPE_PARAMETER, emptyChangeLog(), new EnvVars()));
+    }
+
+    /**
+     * @return the release notes, null if there are none.
+     */
+    private String render(String releaseNotesType, ChangeLogSet<? extends ChangeLogSet.Entry> changeLogSet,
+                          EnvVars environment) throws Exception {
+        File target = new File(temporaryFolder.getRoot(), "release-notes.txt");
+        boolean written = ReleaseNotesFormatter.writeReleaseNotes(null, changeLogSet, releaseNotesType, "NOTES",
+                "notes.txt", 100, environment, new FilePath(temporaryFolder.getRoot()), target, logger);
+        return written ? new String(Files.readAllBytes(target.toPath()), "UTF-8") : null;
+    }
+
+    private static StubChangeLogSet emptyChangeLog() {
+        return changeLog();
+    }
+
+    private static StubChangeLogSet changeLog(String... messages) {
+        return new StubChangeLogSet(messages);
+    }
+
+    private static final class StubChangeLogSet extends ChangeLogSet<StubEntry> {
+        private final List<StubEntry> entries = new ArrayList<>();
+
+        StubChangeLogSet(String... messages) {
+            super(null, null);
+            for (String message : messages) {
+                entries.add(new StubEntry(message));
+            }
+        }
+
+        @Override
+        public boolean isEmptySet() {
+            return entries.isEmpty();
+        }
+
+        @Override
+        public Iterator<StubEntry> iterator() {
+            return entries.iterator();
+        }
+    }
+
+    private static final class StubEntry extends ChangeLogSet.Entry {
+        private final String msg;
+
+        StubEntry(String msg) {
+            this.msg = msg;
+        }
+
+        @Override
+        public String getMsg() {
+            return msg;
+        }
+
+        @Override
+        public User getAuthor() {
+            return null;
+        }
+
+        @Override
+        public Collection<String> getAffectedPaths() {
+            return Collections.emptyList();
+        }
+    }
+}
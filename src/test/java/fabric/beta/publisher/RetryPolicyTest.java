@@ -0,0 +1,81 @@
+package fabric.beta.publisher;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    private PrintStream logger = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+
+        }
+    });
+
+    @Test
+    public void testRetriesUntilSuccess() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        boolean success = new RetryPolicy(3, 0).run(logger, "Upload", new RetryPolicy.Attempt() {
+            @Override
+            public boolean run() throws IOException {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new IOException("connection reset");
+                }
+                return true;
+            }
+        });
+
+        assertTrue(success);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testDoesNotRetryRejectedAttempt() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        boolean success = new RetryPolicy(3, 0).run(logger, "Upload", new RetryPolicy.Attempt() {
+            @Override
+            public boolean run() {
+                attempts.incrementAndGet();
+                return false;
+            }
+        });
+
+        assertFalse(success);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void testFailsOnceAttemptsAreUsedUp() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        boolean success = new RetryPolicy(2, 0).run(logger, "Upload", new RetryPolicy.Attempt() {
+            @Override
+            public boolean run() throws IOException {
+                attempts.incrementAndGet();
+                throw new IOException("timeout");
+            }
+        });
+
+        assertFalse(success);
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testDelayGrowsExponentiallyWithJitter() {
+        RetryPolicy policy = new RetryPolicy(5, 1000);
+
+        for (int i = 0; i < 100; i++) {
+            long first = policy.delayMs(1);
+            long third = policy.delayMs(3);
+            assertTrue(first >= 500 && first <= 1000);
+            assertTrue(third >= 2000 && third <= 4000);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package fabric.beta.publisher;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TempWorkspaceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private PrintStream logger = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+
+        }
+    });
+
+    @Test
+    public void testCloseDeletesEverything() throws IOException {
+        File file;
+        File directory;
+        try (TempWorkspace tempWorkspace = new TempWorkspace(temporaryFolder.getRoot(), 0)) {
+            file = tempWorkspace.newFile("app", ".apk", 10);
+            directory = tempWorkspace.newDirectory("tools");
+            assertTrue(new File(directory, "nested").mkdir());
+        }
+        assertFalse(file.exists());
+        assertFalse(directory.exists());
+    }
+
+    @Test
+    public void testQuota() throws IOException {
+        try (TempWorkspace tempWorkspace = new TempWorkspace(temporaryFolder.getRoot(), 100)) {
+            File first = tempWorkspace.newFile("app", ".apk", 60);
+            try {
+                tempWorkspace.newFile("app", ".apk", 60);
+                fail("Expected the quota to be exceeded");
+            } catch (IOException expected) {
+                // the second file does not fit
+            }
+            tempWorkspace.delete(logger, first);
+            tempWorkspace.newFile("app", ".apk", 60);
+        }
+    }
+
+    @Test
+    public void testRemoveOrphansKeepsOpenWorkspaces() throws IOException {
+        File root = temporaryFolder.getRoot();
+        File orphan = new File(root, "publish-orphan");
+        assertTrue(orphan.mkdir());
+        assertTrue(orphan.setLastModified(System.currentTimeMillis() - 2 * TempWorkspaceJanitor.GRACE_PERIOD_MS));
+
+        try (TempWorkspace tempWorkspace = new TempWorkspace(root, 0)) {
+            assertTrue(tempWorkspace.getDir().setLastModified(orphan.lastModified()));
+
+            assertEquals(1, TempWorkspace.removeOrphans(root));
+            assertFalse(orphan.exists());
+            assertTrue(tempWorkspace.getDir().isDirectory());
+        }
+    }
+}
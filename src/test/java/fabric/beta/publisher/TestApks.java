@@ -0,0 +1,68 @@
+package fabric.beta.publisher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds the minimal APKs the tests upload: a zip with an {@code AndroidManifest.xml} and, unless told otherwise,
+ * the {@code crashlytics-build.properties} that {@link AppRelease} reads.
+ */
+final class TestApks {
+    static final String BUILD_PROPERTIES = "assets/crashlytics-build.properties";
+
+    private TestApks() {
+    }
+
+    /**
+     * @return a temporary APK of {@code com.example} that is deleted when the JVM exits.
+     */
+    static File createTemp() throws IOException {
+        File apk = File.createTempFile("test", ".apk");
+        apk.deleteOnExit();
+        return create(apk, "com.example", 0);
+    }
+
+    /**
+     * @param payloadBytes size of the random {@code classes.dex}, 0 for none.
+     */
+    static File create(File apk, String packageName, int payloadBytes) throws IOException {
+        byte[] payload = new byte[payloadBytes];
+        new Random(42).nextBytes(payload);
+        try (ZipOutputStream zos = open(apk)) {
+            write(zos, BUILD_PROPERTIES, ("package_name=" + packageName
+                    + "\nbuild_id=abc\nversion_name=1.0\nversion_code=42\n").getBytes("UTF-8"));
+            if (payloadBytes > 0) {
+                write(zos, "classes.dex", payload);
+            }
+        }
+        return apk;
+    }
+
+    /**
+     * @return a temporary APK that holds only the manifest and the given entry.
+     */
+    static File createTempWithEntry(String entryName, String content) throws IOException {
+        File apk = File.createTempFile("test", ".apk");
+        apk.deleteOnExit();
+        try (ZipOutputStream zos = open(apk)) {
+            write(zos, entryName, content.getBytes("UTF-8"));
+        }
+        return apk;
+    }
+
+    private static ZipOutputStream open(File apk) throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(apk));
+        write(zos, "AndroidManifest.xml", new byte[]{0, 1, 2});
+        return zos;
+    }
+
+    private static void write(ZipOutputStream zos, String entryName, byte[] content) throws IOException {
+        zos.putNextEntry(new ZipEntry(entryName));
+        zos.write(content);
+        zos.closeEntry();
+    }
+}
@@ -0,0 +1,35 @@
+package fabric.beta.publisher;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class UploadLedgerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecordAndFind() throws IOException {
+        UploadLedger ledger = new UploadLedger(temporaryFolder.getRoot());
+        String key = UploadLedger.key("abc", "apiKey", "group");
+
+        assertNull(ledger.find(key));
+        ledger.record(key, "https://fabric.io/org/android/apps/com.example/beta/releases/1", "app.apk");
+
+        UploadLedger.Entry entry = ledger.find(key);
+        assertEquals("https://fabric.io/org/android/apps/com.example/beta/releases/1", entry.getBuildUrl());
+        assertEquals("app.apk", entry.getApkName());
+    }
+
+    @Test
+    public void testKeyDependsOnTarget() throws IOException {
+        assertNotEquals(UploadLedger.key("abc", "apiKey", "group"), UploadLedger.key("abc", "apiKey", "other"));
+    }
+}
@@ -0,0 +1,86 @@
+package fabric.beta.publisher;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UploadProgressTest {
+    private static final long MB = 1024 * 1024;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    private final PrintStream logger = new PrintStream(log, true);
+
+    @Test
+    public void testLogsEveryPercentStep() {
+        UploadProgress progress = new UploadProgress(logger, "Uploading app.apk", 10 * MB, 0, 50);
+        progress.start(0);
+        for (int i = 1; i <= 10; i++) {
+            progress.add(MB, i * SECOND);
+        }
+
+        String[] lines = lines();
+        assertEquals(1, lines.length);
+        assertEquals("Uploading app.apk: 50% (5.00 of 10.00 MB), 1.00 MB/s now, 1.00 MB/s average, ETA 5 s",
+                lines[0]);
+    }
+
+    @Test
+    public void testLogsEveryInterval() {
+        UploadProgress progress = new UploadProgress(logger, "Uploading app.apk", 100 * MB, 10 * SECOND, 0);
+        progress.start(0);
+        for (int i = 1; i <= 30; i++) {
+            progress.add(MB, i * SECOND);
+        }
+
+        String[] lines = lines();
+        assertEquals(3, lines.length);
+        assertEquals("Uploading app.apk: 30% (30.00 of 100.00 MB), 1.00 MB/s now, 1.00 MB/s average, "
+                + "ETA 1 min 10 s", lines[2]);
+    }
+
+    @Test
+    public void testCurrentRateCoversTimeSinceLastLine() {
+        UploadProgress progress = new UploadProgress(logger, "Uploading app.apk", 100 * MB, 10 * SECOND, 0);
+        progress.start(0);
+        progress.add(40 * MB, 10 * SECOND);
+        progress.add(10 * MB, 20 * SECOND);
+
+        String[] lines = lines();
+        assertEquals(2, lines.length);
+        assertTrue(lines[1], lines[1].contains("1.00 MB/s now, 2.50 MB/s average, ETA 20 s"));
+    }
+
+    @Test
+    public void testFinishLogsAverageRate() {
+        UploadProgress progress = new UploadProgress(logger, "Uploading app.apk", 4 * MB, 0, 0);
+        progress.start(0);
+        progress.add(4 * MB, 2 * SECOND);
+        progress.finish(2 * SECOND);
+
+        assertEquals(4 * MB, progress.getBytes());
+        assertEquals(TimeUnit.SECONDS.toMillis(2), progress.getElapsedMillis());
+        assertEquals("Uploading app.apk: sent 4.00 MB in 2.0 s, 2.00 MB/s", lines()[0]);
+    }
+
+    @Test
+    public void testStartResetsCount() {
+        UploadProgress progress = new UploadProgress(logger, "Uploading app.apk", 4 * MB, 0, 0);
+        progress.start(0);
+        progress.add(MB, SECOND);
+        progress.start(2 * SECOND);
+        progress.add(MB, 3 * SECOND);
+
+        assertEquals(MB, progress.getBytes());
+    }
+
+    private String[] lines() {
+        String text = log.toString().trim();
+        return text.isEmpty() ? new String[0] : text.split("\\r?\\n");
+    }
+}
@@ -0,0 +1,95 @@
+package fabric.beta.publisher;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UploadSchedulerTest {
+
+    private PrintStream logger = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+
+        }
+    });
+
+    @Test
+    public void testConcurrencyLimit() throws InterruptedException {
+        UploadScheduler scheduler = new UploadScheduler();
+        scheduler.configure(1, 0, 0);
+        UploadScheduler.Permit first = scheduler.acquire(logger, "key");
+
+        Thread second = acquireInBackground(scheduler, "other");
+        assertTrue(second.isAlive());
+
+        first.close();
+        second.join(TimeUnit.SECONDS.toMillis(5));
+        assertEquals(Thread.State.TERMINATED, second.getState());
+    }
+
+    @Test
+    public void testFreeSlotIsNotLogged() throws InterruptedException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        UploadScheduler scheduler = new UploadScheduler();
+        scheduler.configure(1, 0, 0);
+
+        scheduler.acquire(new PrintStream(log, true), "key").close();
+        assertEquals("", log.toString());
+    }
+
+    @Test
+    public void testApiKeyLimitLetsOtherKeysPass() throws InterruptedException {
+        UploadScheduler scheduler = new UploadScheduler();
+        scheduler.configure(0, 1, 0);
+        UploadScheduler.Permit first = scheduler.acquire(logger, "key");
+
+        Thread sameKey = acquireInBackground(scheduler, "key");
+        Thread otherKey = acquireInBackground(scheduler, "other");
+        otherKey.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertEquals(Thread.State.TERMINATED, otherKey.getState());
+        assertTrue(sameKey.isAlive());
+        first.close();
+        sameKey.join(TimeUnit.SECONDS.toMillis(5));
+        assertEquals(Thread.State.TERMINATED, sameKey.getState());
+    }
+
+    @Test
+    public void testTokenBucketLimitsRate() throws InterruptedException {
+        UploadScheduler.TokenBucket bucket = new UploadScheduler.TokenBucket();
+        bucket.setRate(100 * 1024);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            bucket.take(10 * 1024);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 200 KB at 100 KB/s, starting with an empty bucket
+        assertTrue("took " + elapsedMs + " ms", elapsedMs >= 1900);
+    }
+
+    private Thread acquireInBackground(final UploadScheduler scheduler, final String apiKey)
+            throws InterruptedException {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.acquire(logger, apiKey).close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        thread.start();
+        thread.join(200);
+        return thread;
+    }
+}
@@ -0,0 +1,204 @@
+package fabric.beta.publisher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs a real worker JVM with {@link FakeDevtools} packaged as the tools jar.
+ */
+public class UploadWorkerClientTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    private final PrintStream logger = new PrintStream(log, true);
+    private final List<String> javaCommand =
+            Collections.singletonList(new File(System.getProperty("java.home"), "bin/java").getPath());
+    private File toolsJar;
+
+    @Before
+    public void createToolsJar() throws IOException {
+        toolsJar = temporaryFolder.newFile("crashlytics-devtools.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, FakeDevtools.class.getName());
+        String classFile = FakeDevtools.class.getName().replace('.', '/') + ".class";
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(toolsJar), manifest);
+             InputStream in = FakeDevtools.class.getClassLoader().getResourceAsStream(classFile)) {
+            jar.putNextEntry(new JarEntry(classFile));
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                jar.write(buffer, 0, read);
+            }
+            jar.closeEntry();
+        }
+    }
+
+    @After
+    public void stopWorker() {
+        UploadWorkerClient.shutdown();
+    }
+
+    @Test
+    public void testOutputGoesToTheJobLog() throws Exception {
+        assertTrue(run("print", "app.apk"));
+        assertTrue(log.toString(), log.toString().contains("uploaded app.apk"));
+    }
+
+    @Test
+    public void testStderrDoesNotFailTheUpload() throws Exception {
+        assertTrue(run("stderr", "slow network"));
+        assertTrue(log.toString(), log.toString().contains("warning: slow network"));
+    }
+
+    @Test
+    public void testExitStatusDecidesSuccess() throws Exception {
+        assertTrue(run("exit", "0"));
+        assertFalse(run("exit", "3"));
+        assertTrue(log.toString(), log.toString().contains("Upload exited with status 3"));
+        assertFalse(run("throw", "x"));
+        // the worker survives all of them
+        assertTrue(run("print", "app.apk"));
+    }
+
+    @Test
+    public void testExitDoesNotEndOtherUploads() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> slowUpload = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return run("sleep", "2000");
+                }
+            });
+            Thread.sleep(500);
+            assertFalse(run("exit", "1"));
+            assertTrue(slowUpload.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentUploadsRunInSeparateWorkers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Boolean>> uploads = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                uploads.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return run("jvm", "1000");
+                    }
+                }));
+            }
+            for (Future<Boolean> upload : uploads) {
+                assertTrue(upload.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Set<String> concurrentJvms = jvms();
+        assertEquals(log.toString(), 2, concurrentJvms.size());
+
+        // an idle worker is reused
+        assertTrue(run("jvm", "0"));
+        assertEquals(concurrentJvms, jvms());
+    }
+
+    @Test
+    public void testNewToolsVersionRetiresTheWorker() throws Exception {
+        assertTrue(run("print", "app.apk"));
+        File newToolsJar = temporaryFolder.newFile("crashlytics-devtools-2.jar");
+        Files.copy(toolsJar.toPath(), newToolsJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        toolsJar = newToolsJar;
+        assertTrue(run("print", "other.apk"));
+    }
+
+    @Test
+    public void testTimeoutCancelsTheUpload() throws Exception {
+        try {
+            UploadWorkerClient.run(logger, javaCommand, toolsJar, Arrays.asList("sleep", "60000"), 500);
+            fail("Expected the upload to time out");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("timed out"));
+        }
+        assertFalse(log.toString(), log.toString().contains("woke up"));
+        // the cancelled upload has stopped without taking the worker down
+        assertTrue(run("print", "app.apk"));
+    }
+
+    @Test
+    public void testAbortCancelsTheUpload() throws Exception {
+        final Thread caller = Thread.currentThread();
+        Thread aborter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                caller.interrupt();
+            }
+        };
+        aborter.start();
+        try {
+            run("sleep", "60000");
+            fail("Expected the upload to be aborted");
+        } catch (InterruptedException expected) {
+            assertTrue(log.toString(), log.toString().contains("Aborted, cancelling upload"));
+        }
+        assertTrue(run("print", "app.apk"));
+    }
+
+    /**
+     * @return the workers that have printed their name so far.
+     */
+    private Set<String> jvms() {
+        Set<String> jvms = new HashSet<>();
+        for (String line : log.toString().split("\\r?\\n")) {
+            if (line.startsWith("jvm ")) {
+                jvms.add(line);
+            }
+        }
+        return jvms;
+    }
+
+    private boolean run(String... arguments) throws IOException, InterruptedException {
+        return UploadWorkerClient.run(logger, javaCommand, toolsJar, Arrays.asList(arguments), 0);
+    }
+}
@@ -0,0 +1,73 @@
+package fabric.beta.publisher;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZipExtractorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testExtractsAllEntries() throws IOException {
+        File zip = createZip("a.txt", "b/c.txt", "b/d/e.txt");
+        File dest = temporaryFolder.newFolder();
+
+        List<File> files = ZipExtractor.extract(zip, dest, ZipExtractor.ALL_ENTRIES);
+
+        assertEquals(3, files.size());
+        assertArrayEquals("b/d/e.txt".getBytes("UTF-8"), Files.readAllBytes(new File(dest, "b/d/e.txt").toPath()));
+    }
+
+    @Test
+    public void testExtractsOnlyFilteredEntries() throws IOException {
+        File zip = createZip("a.txt", "crashlytics-devtools.jar");
+        File dest = temporaryFolder.newFolder();
+
+        List<File> files = ZipExtractor.extract(zip, dest, ZipExtractor.only("crashlytics-devtools.jar"));
+
+        assertEquals(1, files.size());
+        assertTrue(new File(dest, "crashlytics-devtools.jar").isFile());
+        assertFalse(new File(dest, "a.txt").exists());
+    }
+
+    @Test
+    public void testRejectsEntriesOutsideOfDestination() throws IOException {
+        File zip = createZip("../evil.txt");
+        File dest = temporaryFolder.newFolder();
+
+        try {
+            ZipExtractor.extract(zip, dest, ZipExtractor.ALL_ENTRIES);
+            fail();
+        } catch (IOException e) {
+            assertFalse(new File(dest.getParentFile(), "evil.txt").exists());
+        }
+    }
+
+    private File createZip(String... entryNames) throws IOException {
+        File zip = temporaryFolder.newFile();
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (String entryName : entryNames) {
+                zos.putNextEntry(new ZipEntry(entryName));
+                zos.write(entryName.getBytes("UTF-8"));
+                zos.closeEntry();
+            }
+        }
+        return zip;
+    }
+}